@@ -0,0 +1,123 @@
+package game;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+// Active rendering for Game: a dedicated thread draws into a BufferStrategy at the display's
+// refresh rate, instead of relying on coalesced repaint() calls on the EDT, interpolating between
+// the two newest snapshots so it stays smooth whatever the tick rate. Frame times are tracked so
+// pacing can be checked; run with -Dgame.frameStats=true to print them once per second.
+public class ActiveRenderer extends Canvas implements Runnable {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final Game game;
+    private final long frameNanos;
+    private final boolean printStats = Boolean.getBoolean("game.frameStats");
+    private volatile boolean running = false;
+    private volatile long lastFrameNanos;
+    private volatile long worstFrameNanos;
+    private volatile int framesPerSecond;
+
+    public ActiveRenderer(Game game, int targetFps) {
+        this.game = game;
+        this.frameNanos = 1_000_000_000L / targetFps;
+        setIgnoreRepaint(true);
+        setBackground(Color.BLACK);
+        setFocusable(true);
+        addKeyListener(game);
+    }
+
+    // Refresh rate of the default screen, or 60 Hz if the platform does not report one
+    public static int displayRefreshRate() {
+        try {
+            GraphicsDevice device = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+            int rate = device.getDisplayMode().getRefreshRate();
+            return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : rate;
+        } catch (HeadlessException e) {
+            return DEFAULT_REFRESH_RATE;
+        }
+    }
+
+    // Must be called after the canvas is displayable, i.e. after the frame is shown
+    public void start() {
+        createBufferStrategy(2);
+        running = true;
+        Thread thread = new Thread(this, "active-renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        BufferStrategy strategy = getBufferStrategy();
+        long nextFrame = System.nanoTime();
+        long windowStart = nextFrame;
+        long windowWorst = 0;
+        long windowTotal = 0;
+        int windowFrames = 0;
+
+        while (running) {
+            long start = System.nanoTime();
+            do {
+                do {
+                    Graphics g = strategy.getDrawGraphics();
+                    try {
+                        game.renderInterpolated(g, start);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+
+            long end = System.nanoTime();
+            long took = end - start;
+            lastFrameNanos = took;
+            windowWorst = Math.max(windowWorst, took);
+            windowTotal += took;
+            windowFrames++;
+            if (end - windowStart >= 1_000_000_000L) {
+                worstFrameNanos = windowWorst;
+                framesPerSecond = windowFrames;
+                if (printStats) {
+                    System.out.printf("fps %d, avg frame %.2f ms, worst %.2f ms%n",
+                            windowFrames, windowTotal / 1e6 / windowFrames, windowWorst / 1e6);
+                }
+                windowStart = end;
+                windowWorst = 0;
+                windowTotal = 0;
+                windowFrames = 0;
+            }
+
+            // Sleep until the next frame deadline; if we fell behind, start a fresh schedule
+            // instead of rendering a burst of frames to catch up
+            nextFrame += frameNanos;
+            long sleep = nextFrame - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+            } else {
+                nextFrame = System.nanoTime();
+            }
+        }
+    }
+
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+
+    // Slowest frame in the last completed one second window
+    public long getWorstFrameNanos() {
+        return worstFrameNanos;
+    }
+
+    public int getFramesPerSecond() {
+        return framesPerSecond;
+    }
+}
@@ -0,0 +1,229 @@
+package game;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+// Client-side cache for one HTTP GET resource. A value younger than the TTL is returned without
+// touching the network. An older value is still returned right away while one background request
+// revalidates it (stale-while-revalidate), and that request sends the last ETag as If-None-Match so
+// an unchanged resource costs a 304 without a body and is not parsed again. Only the first get(),
+// or the first after invalidate(), waits for the server; if that fails while an old value exists,
+// the old value is returned instead of the error. Bodies may come gzip-compressed; the parser gets
+// them decompressed along with the response's Content-Type, so it can read whichever format the
+// server chose.
+public class CachedResource<T> {
+    public interface Parser<T> {
+        // contentType may be null if the server sent none
+        T parse(InputStream in, String contentType) throws IOException;
+    }
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    // One daemon thread is plenty for background revalidation and never keeps the JVM alive
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String url;
+    private final Map<String, String> headers;
+    private final long ttlNanos;
+    private final Parser<T> parser;
+    // Serialises requests so concurrent misses do not download the same thing twice
+    private final Object fetchLock = new Object();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder downloads = new LongAdder();
+
+    // Guarded by this
+    private T value;
+    private String etag;
+    private boolean hasValue = false;
+    private boolean mustRevalidate = false;
+    // Counts invalidate() calls, so a request that was already under way cannot undo one
+    private long generation = 0;
+    private long fetchedAt;
+
+    public CachedResource(String url, long ttl, TimeUnit unit, Parser<T> parser) {
+        this(url, Map.of(), ttl, unit, parser);
+    }
+
+    public CachedResource(String url, Map<String, String> headers, long ttl, TimeUnit unit, Parser<T> parser) {
+        this.url = url;
+        this.headers = Map.copyOf(headers);
+        this.ttlNanos = unit.toNanos(ttl);
+        this.parser = parser;
+    }
+
+    // Returned values are shared between callers and must not be modified
+    public T get() throws IOException {
+        T stale;
+        synchronized (this) {
+            if (hasValue && !mustRevalidate) {
+                if (System.nanoTime() - fetchedAt < ttlNanos) {
+                    hits.increment();
+                    return value;
+                }
+                staleHits.increment();
+                stale = value;
+            } else {
+                stale = null;
+            }
+        }
+        if (stale != null) {
+            refreshInBackground();
+            return stale;
+        }
+
+        misses.increment();
+        try {
+            return refresh();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (hasValue) {
+                    return value;
+                }
+            }
+            throw e;
+        }
+    }
+
+    // Makes the next get() wait for a conditional request, e.g. after submitting a score
+    public synchronized void invalidate() {
+        mustRevalidate = true;
+        generation++;
+    }
+
+    // Asks the server now, conditionally if there is a cached value, and returns the current value
+    public T refresh() throws IOException {
+        synchronized (fetchLock) {
+            String knownEtag;
+            long startGeneration;
+            synchronized (this) {
+                knownEtag = hasValue ? etag : null;
+                startGeneration = generation;
+            }
+
+            long start = System.nanoTime();
+            GameEvents.LeaderboardIoEvent event = new GameEvents.LeaderboardIoEvent();
+            event.begin();
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            if (knownEtag != null) {
+                connection.setRequestProperty("If-None-Match", knownEtag);
+            }
+
+            int status;
+            try {
+                status = connection.getResponseCode();
+            } catch (IOException e) {
+                Telemetry.leaderboardIo(event, start, "GET", url, -1, 1, 0);
+                throw e;
+            }
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && knownEtag != null) {
+                Telemetry.leaderboardIo(event, start, "GET", url, status, 1, 0);
+                notModified.increment();
+                synchronized (this) {
+                    fetchedAt = System.nanoTime();
+                    mustRevalidate = generation != startGeneration;
+                    return value;
+                }
+            }
+            if (status / 100 != 2) {
+                // Read the error body so the connection can be reused
+                InputStream error = connection.getErrorStream();
+                if (error != null) {
+                    try (error) {
+                        error.readAllBytes();
+                    }
+                }
+                Telemetry.leaderboardIo(event, start, "GET", url, status, 1, 0);
+                throw new IOException("HTTP " + status + " from " + url);
+            }
+
+            T parsed;
+            try (InputStream in = connection.getInputStream()) {
+                boolean gzip = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+                parsed = parser.parse(gzip ? new GZIPInputStream(in) : in, connection.getContentType());
+            }
+            Telemetry.leaderboardIo(event, start, "GET", url, status, 1, Math.max(0, connection.getContentLengthLong()));
+            downloads.increment();
+            synchronized (this) {
+                value = parsed;
+                etag = connection.getHeaderField("ETag");
+                hasValue = true;
+                fetchedAt = System.nanoTime();
+                mustRevalidate = generation != startGeneration;
+            }
+            return parsed;
+        }
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(() -> {
+            try {
+                refresh();
+            } catch (IOException e) {
+                System.out.println("Background refresh of " + url + " failed: " + e.getMessage());
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    // Fresh values served from memory
+    public long getHits() {
+        return hits.sum();
+    }
+
+    // Expired values served while a background refresh ran
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    // Calls that had to wait for the server
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Requests answered with 304 Not Modified
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    // Requests that downloaded and parsed a body
+    public long getDownloads() {
+        return downloads.sum();
+    }
+
+    @Override
+    public String toString() {
+        return url + " hits=" + getHits() + " stale=" + getStaleHits() + " misses=" + getMisses()
+                + " notModified=" + getNotModified() + " downloads=" + getDownloads();
+    }
+}
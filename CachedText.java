@@ -0,0 +1,89 @@
+package game;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.font.GlyphVector;
+import java.util.Arrays;
+
+// Lines of text laid out once as GlyphVectors and redrawn from them until their key changes.
+// drawString would concatenate a new String and lay out its glyphs on every frame; drawing a
+// GlyphVector does neither and allocates nothing, and unlike a pre-rendered image it costs per
+// glyph rather than per pixel of the area. The key is a number plus an optional reference
+// compared by identity, e.g. a score and the list of names. The bounds are the area the text
+// covers, used when only changed parts of the screen are repainted. Only use an instance from
+// one painting thread at a time.
+final class CachedText {
+    private final int x, y, width, height;
+    private GlyphVector[] lines = new GlyphVector[1];
+    private int[] lineX = new int[1];
+    private int[] lineY = new int[1];
+    private int count = 0;
+    private long key;
+    private Object ref;
+    private boolean valid = false;
+
+    CachedText(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    boolean isStale(long key) {
+        return isStale(key, null);
+    }
+
+    boolean isStale(long key, Object ref) {
+        return !valid || this.key != key || this.ref != ref;
+    }
+
+    void clear(long key) {
+        clear(key, null);
+    }
+
+    // Drops the old lines; add the new ones with addLine
+    void clear(long key, Object ref) {
+        Arrays.fill(lines, 0, count, null);
+        count = 0;
+        this.key = key;
+        this.ref = ref;
+        valid = true;
+    }
+
+    // Lays out text in g's current font, with its baseline starting at (x, y)
+    void addLine(Graphics g, String text, int x, int y) {
+        if (count == lines.length) {
+            lines = Arrays.copyOf(lines, count * 2);
+            lineX = Arrays.copyOf(lineX, count * 2);
+            lineY = Arrays.copyOf(lineY, count * 2);
+        }
+        lines[count] = g.getFont().createGlyphVector(((Graphics2D) g).getFontRenderContext(), text);
+        lineX[count] = x;
+        lineY[count] = y;
+        count++;
+    }
+
+    // Draws in g's current colour
+    void draw(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        for (int i = 0; i < count; i++) {
+            g2.drawGlyphVector(lines[i], lineX[i], lineY[i]);
+        }
+    }
+
+    int getX() {
+        return x;
+    }
+
+    int getY() {
+        return y;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,133 @@
+package game;
+
+import java.util.Arrays;
+
+// The part of the screen that changed between two snapshots of a game, so a Swing panel can
+// repaint(x, y, width, height) just that instead of the whole 500x500 area. It keeps its own copy
+// of the snapshot it last saw, and since snapshots only hold the platforms on screen an update
+// costs the same however many platforms the game has. While the player only bounces the region is
+// a few dozen pixels, while the world scrolls it covers every platform on screen.
+final class DirtyRegion {
+    private int platformCount;
+    private int[] platformX = new int[0];
+    private int[] platformY = new int[0];
+    private int[] platformIds = new int[0];
+    private boolean[] platformHit = new boolean[0];
+    private int playerX, playerY, score;
+    private boolean gameOver;
+    private boolean scoreChanged;
+    private boolean first = true;
+    private int minX, minY, maxX, maxY;
+
+    // Collects everything that moved or changed colour since the previous call
+    void update(GameSnapshot snapshot) {
+        clear();
+        if (first || snapshot.isGameOver() != gameOver) {
+            // The game over screen is drawn across the middle of the panel
+            add(0, 0, Simulation.WIDTH, Simulation.HEIGHT);
+        }
+
+        int px = snapshot.getPlayerX();
+        int py = snapshot.getPlayerY();
+        if (px != playerX || py != playerY) {
+            add(playerX, playerY, Simulation.PLAYER_SIZE, Simulation.PLAYER_SIZE);
+            add(px, py, Simulation.PLAYER_SIZE, Simulation.PLAYER_SIZE);
+            playerX = px;
+            playerY = py;
+        }
+
+        int count = snapshot.getPlatformCount();
+        if (platformX.length < count) {
+            platformX = Arrays.copyOf(platformX, count);
+            platformY = Arrays.copyOf(platformY, count);
+            platformIds = Arrays.copyOf(platformIds, count);
+            platformHit = Arrays.copyOf(platformHit, count);
+        }
+        // Old and new positions of every platform that moved, appeared or disappeared; the
+        // platforms on screen are compared by position in the snapshot, which only lines up
+        // while the same platforms are visible
+        boolean sameSet = count == platformCount;
+        for (int i = 0; sameSet && i < count; i++) {
+            sameSet = snapshot.getPlatformId(i) == platformIds[i];
+        }
+        for (int i = 0; i < platformCount; i++) {
+            if (!sameSet || snapshot.getPlatformX(i) != platformX[i] || snapshot.getPlatformY(i) != platformY[i]
+                    || snapshot.isPlatformHit(i) != platformHit[i]) {
+                add(platformX[i], platformY[i], Simulation.PLATFORM_WIDTH, Simulation.PLATFORM_HEIGHT);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int x = snapshot.getPlatformX(i);
+            int y = snapshot.getPlatformY(i);
+            boolean hit = snapshot.isPlatformHit(i);
+            if (!sameSet || x != platformX[i] || y != platformY[i] || hit != platformHit[i]) {
+                add(x, y, Simulation.PLATFORM_WIDTH, Simulation.PLATFORM_HEIGHT);
+                platformX[i] = x;
+                platformY[i] = y;
+                platformIds[i] = snapshot.getPlatformId(i);
+                platformHit[i] = hit;
+            }
+        }
+        platformCount = count;
+
+        scoreChanged = first || snapshot.getScore() != score;
+        score = snapshot.getScore();
+        gameOver = snapshot.isGameOver();
+        first = false;
+    }
+
+    // Adds an area, e.g. some cached text, clipped to the screen
+    void add(int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(Simulation.WIDTH, x + width);
+        int y1 = Math.min(Simulation.HEIGHT, y + height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        minX = Math.min(minX, x0);
+        minY = Math.min(minY, y0);
+        maxX = Math.max(maxX, x1);
+        maxY = Math.max(maxY, y1);
+    }
+
+    void add(CachedText text) {
+        add(text.getX(), text.getY(), text.getWidth(), text.getHeight());
+    }
+
+    // The next update repaints everything, e.g. after a restart or when text outside any layer changed
+    void invalidate() {
+        first = true;
+    }
+
+    void clear() {
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxY = Integer.MIN_VALUE;
+    }
+
+    boolean isEmpty() {
+        return minX >= maxX;
+    }
+
+    boolean scoreChanged() {
+        return scoreChanged;
+    }
+
+    int getX() {
+        return minX;
+    }
+
+    int getY() {
+        return minY;
+    }
+
+    int getWidth() {
+        return maxX - minX;
+    }
+
+    int getHeight() {
+        return maxY - minY;
+    }
+}
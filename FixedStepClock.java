@@ -0,0 +1,64 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+// Fixed-step accumulator between wall-clock time and Simulation steps. The game loop may wake at
+// any rate (-Dgame.tickRate, in Hz, default 100): every wake-up runs as many whole steps of
+// Simulation.TICK_MILLIS as real time has moved on, so the game runs at the same speed at 100 Hz
+// on a desktop and at 30 Hz on a weak kiosk, and every step stays the exact step that replays
+// record. Time left over carries into the next wake-up.
+public final class FixedStepClock {
+    public static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(Simulation.TICK_MILLIS);
+    public static final int DEFAULT_TICK_RATE = 1000 / Simulation.TICK_MILLIS;
+    // After a stall (a modal dialog, a debugger, a GC pause) the game skips ahead instead of
+    // running a long burst of steps the player could not react to. A stall is at least this many
+    // steps and at least two timer periods, so slow tick rates never lose time.
+    private static final int MIN_STALL_STEPS = 25;
+
+    private final int maxStepsPerWake;
+    private long lastWake = 0;
+    private long accumulator = 0;
+
+    // For a loop woken at configuredTickRate()
+    public FixedStepClock() {
+        this(configuredTickRate());
+    }
+
+    public FixedStepClock(int tickRate) {
+        long stepsPerPeriod = (periodMillis(tickRate) + Simulation.TICK_MILLIS - 1) / Simulation.TICK_MILLIS;
+        maxStepsPerWake = (int) Math.max(MIN_STALL_STEPS, 2 * stepsPerPeriod);
+    }
+
+    // Wake-ups per second from -Dgame.tickRate, between 1 and 1000
+    public static int configuredTickRate() {
+        int rate = Integer.getInteger("game.tickRate", DEFAULT_TICK_RATE);
+        return Math.max(1, Math.min(1000, rate));
+    }
+
+    // Timer period for a tick rate; the accumulator absorbs the rounding
+    public static long periodMillis(int tickRate) {
+        return Math.max(1, Math.round(1000.0 / tickRate));
+    }
+
+    // Number of steps to run in this wake-up
+    public int stepsDue(long now) {
+        if (lastWake == 0) {
+            lastWake = now - STEP_NANOS;
+        }
+        accumulator += now - lastWake;
+        lastWake = now;
+        int steps = (int) Math.min(maxStepsPerWake, accumulator / STEP_NANOS);
+        accumulator -= steps * STEP_NANOS;
+        if (accumulator >= STEP_NANOS) {
+            // Stalled: the whole steps beyond the cap are dropped, the fraction of a step is kept
+            accumulator %= STEP_NANOS;
+        }
+        return steps;
+    }
+
+    // The System.nanoTime() instant the state after the last wake-up's steps belongs to. It only
+    // moves forward, by one STEP_NANOS per step, which is what rendering interpolates against.
+    public long stateTime() {
+        return lastWake - accumulator;
+    }
+}
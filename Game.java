@@ -3,14 +3,15 @@ package game;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.http.HttpRequest;
 import java.nio.charset.StandardCharsets;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.ArrayList;
-import java.util.Random;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.swing.*;
 
 public class Game extends JPanel implements ActionListener, KeyListener, Serializable {
@@ -18,23 +19,75 @@ public class Game extends JPanel implements ActionListener, KeyListener, Seriali
 
     private Timer timer;
     private TimerTask gameTask;
-    private int playerX, playerY, playerVelocityY = 0;
-    private boolean onPlatform = false;
-    private ArrayList<Rectangle> platforms = new ArrayList<>();
-    private ArrayList<Integer> platformIds = new ArrayList<>();
-    private ArrayList<Integer> hitPlatformIds = new ArrayList<>();
-    private int nextPlatformId = 0;
-    private int score = 0;
-    private boolean isGameOver = false;
-    private boolean moveLeft = false;
-    private boolean moveRight = false;
+    private final Simulation simulation;
+    // The tick thread publishes a snapshot after every tick; painting only reads snapshots
+    private final SnapshotBuffer snapshots;
+    // Each tick runs the fixed steps that are due, so the tick rate does not change game speed
+    private final FixedStepClock clock = new FixedStepClock();
+    private final int tickRate = FixedStepClock.configuredTickRate();
+    private volatile boolean moveLeft = false;
+    private volatile boolean moveRight = false;
+    private volatile boolean restartRequested = false;
+    // R was pressed; the tick thread restarts only if the game is over
+    private volatile boolean restartKeyPressed = false;
+    private volatile boolean activeRendering = false;
     private JButton restartButton;
-    private ArrayList<ScoreEntry> highScores = new ArrayList<>();
+    // Best scores, guarded by its own monitor; highScores is a copy republished after every change
+    private final TopK<ScoreEntry> highScoreTable;
+    // Replaced as a whole, never mutated after publication, so painting can read it from any thread
+    private volatile ArrayList<ScoreEntry> highScores = new ArrayList<>();
+
+    private static final int HIGH_SCORE_COUNT = 5;
 
     private static final String MASTER_KEY = "$2a$10$C/WPAWTBtUBx4hBM2.rEcOospCUVMcgeXhDKoCt3cYK0Xms5l.mr6";
     private static final String BIN_ID = "67f7ac438960c979a58236c7";
+    // Point at a LeaderboardServer (e.g. http://localhost:8080/v3/b/) to play fully offline
+    private static final String BIN_URL = System.getProperty("game.jsonbinUrl", "https://api.jsonbin.io/v3/b/");
+    private static final long HIGH_SCORE_TTL_SECONDS = 30;
+    // A LeaderboardServer's rank endpoint; jsonbin.io has none, so by default the game-over screen
+    // only shows a global rank when the bins come from a LeaderboardServer
+    private static final String RANK_URL = System.getProperty("game.rankUrl",
+            BIN_URL.contains("api.jsonbin.io") ? null : BIN_URL.replace("/v3/b/", "/api/leaderboard/rank"));
+    private static final String[] RANK_FIELDS = {"rank", "total"};
+    // Reloads within the TTL cost nothing, later ones a 304 if the bin has not changed
+    private final CachedResource<TopK<ScoreEntry>> onlineHighScores;
+    // Completed once the first load has finished, successfully or not. Uploads wait for it so a
+    // game finished while the list was still loading cannot overwrite the online scores.
+    private final CompletableFuture<Void> highScoresLoaded = new CompletableFuture<>();
+    private boolean firstFrameRendered = false;
+    // Tick thread only: what changed since the previous tick, repainted instead of the whole panel
+    private final DirtyRegion dirty = new DirtyRegion();
+    private ArrayList<ScoreEntry> scoresAtLastTick;
+    private boolean loadedAtLastTick = false;
+    private long globalRankAtLastTick = 0;
+    // Rank << 32 | number of scores on the server, 0 until the server has answered for this game
+    private volatile long globalRank = 0;
+    // Bumped by the tick thread on every game over and restart, so a late answer is dropped
+    private volatile int rankGeneration = 0;
+    // Painting thread only: text is laid out once and redrawn from these until it changes
+    private final CachedText heightText = new CachedText(0, 5, 200, 20);
+    private final CachedText gameOverText = new CachedText(170, 235, 330, 175);
+    private final CachedText rankText = new CachedText(170, 372, 330, 18);
+    private final Rectangle clip = new Rectangle();
 
     public Game() {
+        this(new Simulation(), true);
+    }
+
+    // live = false skips the tick timer and the network load, used by the benchmarks
+    Game(Simulation simulation, boolean live) {
+        this(simulation, HIGH_SCORE_COUNT, live);
+    }
+
+    Game(Simulation simulation, int highScoreCount, boolean live) {
+        this.simulation = simulation;
+        highScoreTable = new TopK<>(highScoreCount);
+        // jsonbin.io answers JSON whatever we accept; the local LeaderboardServer can answer binary
+        onlineHighScores = new CachedResource<>(BIN_URL + BIN_ID + "/latest",
+                Map.of("X-Master-Key", MASTER_KEY, "Accept", ScoreBinary.ACCEPT), HIGH_SCORE_TTL_SECONDS,
+                TimeUnit.SECONDS, (in, contentType) -> readHighScores(in, contentType, highScoreCount));
+        snapshots = new SnapshotBuffer(simulation.getPlatformCount());
+        publishSnapshot();
         setLayout(null);
         
         // Create components first
@@ -47,7 +100,6 @@ public class Game extends JPanel implements ActionListener, KeyListener, Seriali
         add(restartButton);
         
         // Then setup game logic
-        timer = new Timer();
         gameTask = new TimerTask() {
             @Override
             public void run() {
@@ -57,9 +109,12 @@ public class Game extends JPanel implements ActionListener, KeyListener, Seriali
         addKeyListener(this); 
         setFocusable(true);
         setFocusTraversalKeysEnabled(false);
-        createPlatforms();
-        loadHighScoresOnline();
-        timer.schedule(gameTask, 0, 10);
+        if (live) {
+            // The game is playable right away; the high scores arrive when the server answers
+            timer = new Timer();
+            timer.schedule(gameTask, 0, FixedStepClock.periodMillis(tickRate));
+            loadHighScoresInBackground();
+        }
         
         // Make sure the panel gets focus to detect keyboard events
         addComponentListener(new ComponentAdapter() {
@@ -71,88 +126,192 @@ public class Game extends JPanel implements ActionListener, KeyListener, Seriali
     }
 
     public void createPlatforms() {
-        platforms.clear();
-        platformIds.clear();
-        hitPlatformIds.clear();
-        nextPlatformId = 0;
-
-        Rectangle firstPlatform = new Rectangle(200, 400, 100, 10);
-        platforms.add(firstPlatform);
-        platformIds.add(nextPlatformId++);
-        playerX = firstPlatform.x + firstPlatform.width / 2 - 10;
-        playerY = firstPlatform.y - 20;
-
-        Random random = new Random();
-        for (int i = 1; i < 5; i++) {
-            platforms.add(new Rectangle(random.nextInt(400), 400 - i * 100, 100, 10));
-            platformIds.add(nextPlatformId++);
-        }
+        simulation.reset();
     }
 
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
+        // No super.paintComponent: render fills the whole clip, so the default background fill
+        // would only be painted over. Repaints follow the ticks, so there is nothing to
+        // interpolate between.
+        GameSnapshot snapshot = snapshots.latest();
+        render(g, snapshot, snapshot, 1);
+    }
+
+    // Called by the active renderer, which draws at the display's refresh rate rather than once
+    // per tick. It draws the game as it was one tick period before now, in between the two
+    // newest snapshots, so motion stays smooth on displays faster than the tick rate.
+    void renderInterpolated(Graphics g, long now) {
+        GameSnapshot current = snapshots.latest();
+        GameSnapshot previous = snapshots.previous();
+        long renderTime = now - 1_000_000_000L / tickRate;
+        double alpha = 1;
+        // A restart starts the ticks again from 0, and then there is nothing to interpolate
+        if (previous.getTick() < current.getTick() && previous.getTime() < current.getTime()) {
+            alpha = (double) (renderTime - previous.getTime()) / (current.getTime() - previous.getTime());
+            alpha = Math.max(0, Math.min(1, alpha));
+        }
+        render(g, current, previous, alpha);
+    }
+
+    // Draws one frame at alpha between previous (0) and snapshot (1). Platforms are matched by id,
+    // which increases from the bottom of the screen up, and one without a match in previous,
+    // i.e. one that was just recycled, is drawn where it is now.
+    void render(Graphics g, GameSnapshot snapshot, GameSnapshot previous, double alpha) {
+        long start = System.nanoTime();
+        if (!firstFrameRendered) {
+            firstFrameRendered = true;
+            StartupTimer.mark(StartupTimer.FIRST_FRAME);
+        }
+        // A repaint of a dirty region comes with a clip; active rendering draws the whole frame
+        clip.setBounds(0, 0, Simulation.WIDTH, Simulation.HEIGHT);
+        g.getClipBounds(clip);
+
         g.setColor(Color.BLACK);
-        g.fillRect(0, 0, 500, 500);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
 
+        boolean interpolate = alpha < 1;
         g.setColor(Color.RED);
-        g.fillRect(playerX, playerY, 20, 20);
-
-        for (int i = 0; i < platforms.size(); i++) {
-            Rectangle platform = platforms.get(i);
-            int platformId = platformIds.get(i);
-            g.setColor(hitPlatformIds.contains(platformId) ? Color.GRAY : Color.GREEN);
-            g.fillRect(platform.x, platform.y, platform.width, platform.height);
+        int playerX = snapshot.getPlayerX();
+        int playerY = snapshot.getPlayerY();
+        if (interpolate) {
+            playerX = lerp(previous.getPlayerX(), playerX, alpha);
+            playerY = lerp(previous.getPlayerY(), playerY, alpha);
+        }
+        g.fillRect(playerX, playerY, Simulation.PLAYER_SIZE, Simulation.PLAYER_SIZE);
+
+        int clipBottom = clip.y + clip.height;
+        int match = 0;
+        for (int i = 0; i < snapshot.getPlatformCount(); i++) {
+            int y = snapshot.getPlatformY(i);
+            if (interpolate) {
+                int id = snapshot.getPlatformId(i);
+                while (match < previous.getPlatformCount() && previous.getPlatformId(match) < id) {
+                    match++;
+                }
+                if (match < previous.getPlatformCount() && previous.getPlatformId(match) == id) {
+                    y = lerp(previous.getPlatformY(match), y, alpha);
+                }
+            }
+            if (y >= clipBottom || y + Simulation.PLATFORM_HEIGHT <= clip.y) {
+                continue;
+            }
+            g.setColor(snapshot.isPlatformHit(i) ? Color.GRAY : Color.GREEN);
+            g.fillRect(snapshot.getPlatformX(i), y, Simulation.PLATFORM_WIDTH, Simulation.PLATFORM_HEIGHT);
         }
 
+        int score = snapshot.getScore();
+        if (heightText.isStale(score)) {
+            heightText.clear(score);
+            heightText.addLine(g, "Height: " + score, 10, 20);
+        }
         g.setColor(Color.WHITE);
-        g.drawString("Height: " + score, 10, 20);
-
-        if (isGameOver) {
-            g.drawString("Game Over! Score: " + score, 180, 250);
-            g.drawString("High Scores:", 200, 270);
-            for (int i = 0; i < highScores.size() && i < 5; i++) {
-                ScoreEntry entry = highScores.get(i);
-                g.drawString((i + 1) + ". " + entry.name + ": " + entry.score, 200, 290 + i * 20);
+        heightText.draw(g);
+
+        if (snapshot.isGameOver()) {
+            ArrayList<ScoreEntry> scores = highScores;
+            boolean loaded = highScoresLoaded.isDone();
+            long key = (long) score << 2 | (loaded ? 2 : 0) | (activeRendering ? 1 : 0);
+            if (gameOverText.isStale(key, scores)) {
+                gameOverText.clear(key, scores);
+                gameOverText.addLine(g, "Game Over! Score: " + score, 180, 250);
+                gameOverText.addLine(g, loaded ? "High Scores:" : "High Scores (loading...):", 200, 270);
+                for (int i = 0; i < scores.size() && i < 5; i++) {
+                    ScoreEntry entry = scores.get(i);
+                    gameOverText.addLine(g, (i + 1) + ". " + entry.name + ": " + entry.score, 200, 290 + i * 20);
+                }
+                if (activeRendering) {
+                    gameOverText.addLine(g, "Press R to restart", 200, 400);
+                }
             }
+            gameOverText.draw(g);
+            long rank = globalRank;
+            if (rankText.isStale(rank)) {
+                rankText.clear(rank);
+                if (rank != 0) {
+                    rankText.addLine(g, "Global rank: " + (rank >>> 32) + " of " + (int) rank, 200, 385);
+                }
+            }
+            rankText.draw(g);
         }
+        Telemetry.drawOverlay(g);
+        Telemetry.paintFinished(start);
+    }
+
+    private static int lerp(int from, int to, double alpha) {
+        return from + (int) Math.round((to - from) * alpha);
     }
 
     public void updateGame() {
-        if (isGameOver) {
-            repaint();
+        if (restartKeyPressed) {
+            restartKeyPressed = false;
+            if (simulation.isGameOver()) {
+                moveLeft = false;
+                moveRight = false;
+                restartRequested = true;
+            }
+        }
+        int steps = clock.stepsDue(System.nanoTime());
+        if (steps == 0 && !restartRequested) {
             return;
         }
-
-        playerY += playerVelocityY;
-
-        if (playerY > 500) {
-            isGameOver = true;
+        long start = Telemetry.tickStarted();
+        GameEvents.TickEvent event = Telemetry.beginTickEvent();
+        if (restartRequested) {
+            restartRequested = false;
+            rankGeneration++;
+            globalRank = 0;
+            createPlatforms();
+        }
+        int input = (moveLeft ? Simulation.INPUT_LEFT : 0) | (moveRight ? Simulation.INPUT_RIGHT : 0);
+        boolean fell = false;
+        for (int i = 0; i < steps && !fell; i++) {
+            int scoreBefore = simulation.getScore();
+            fell = simulation.step(input);
+            Telemetry.stepFinished(simulation, scoreBefore);
+        }
+        publishSnapshot();
+        Telemetry.tickFinished(event, start, simulation);
+        if (fell) {
+            loadGlobalRankInBackground(simulation.getScore());
             updateHighScores();
             saveHighScoresOnline();
         }
+        if (!activeRendering) {
+            repaintDirty();
+        }
+    }
 
-        bounceIfOnPlatform();
+    private void publishSnapshot() {
+        GameSnapshot snapshot = snapshots.writeBuffer();
+        simulation.copyTo(snapshot);
+        snapshot.time = clock.stateTime();
+        dirty.update(snapshot);
+        snapshots.publish();
+    }
 
-        if (moveLeft && playerX > 0) {
-            playerX -= 10;
+    // Asks Swing to repaint only what changed in this tick; repaints requested before the EDT
+    // gets to them are merged into one rectangle by the RepaintManager
+    private void repaintDirty() {
+        if (dirty.scoreChanged()) {
+            dirty.add(heightText);
         }
-        if (moveRight && playerX < 480) {
-            playerX += 10;
+        ArrayList<ScoreEntry> scores = highScores;
+        boolean loaded = highScoresLoaded.isDone();
+        if (scores != scoresAtLastTick || loaded != loadedAtLastTick) {
+            scoresAtLastTick = scores;
+            loadedAtLastTick = loaded;
+            dirty.add(gameOverText);
         }
-
-        Random random = new Random();
-        for (int i = 0; i < platforms.size(); i++) {
-            Rectangle platform = platforms.get(i);
-            platform.y += 1;
-            if (platform.y > 500) {
-                platform.y = -10;
-                platform.x = random.nextInt(400);
-                platformIds.set(i, nextPlatformId++);
-            }
+        long rank = globalRank;
+        if (rank != globalRankAtLastTick) {
+            globalRankAtLastTick = rank;
+            dirty.add(rankText);
+        }
+        Telemetry.addOverlayTo(dirty);
+        if (!dirty.isEmpty()) {
+            repaint(dirty.getX(), dirty.getY(), dirty.getWidth(), dirty.getHeight());
         }
-
-        repaint();
     }
 
     @Override
@@ -161,42 +320,33 @@ public class Game extends JPanel implements ActionListener, KeyListener, Seriali
     }
 
     public void bounceIfOnPlatform() {
-        boolean touchedPlatform = false;
-
-        for (int i = 0; i < platforms.size(); i++) {
-            Rectangle platform = platforms.get(i);
-            int platformId = platformIds.get(i);
-            if (playerY + 20 >= platform.y && playerY + 20 <= platform.y + 10 &&
-                playerX + 20 > platform.x && playerX < platform.x + platform.width) {
-                touchedPlatform = true;
-                playerVelocityY = -15;
-                if (!hitPlatformIds.contains(platformId)) {
-                    score++;
-                    hitPlatformIds.add(platformId);
-                }
-            }
-        }
-
-        if (!touchedPlatform) {
-            playerVelocityY += 1;
-        }
+        simulation.bounceIfOnPlatform();
     }
 
+    // The simulation is only touched on the tick thread, so the reset happens on its next tick
     public void restartGame() {
-        isGameOver = false;
-        score = 0;
-        playerVelocityY = 0;
         moveLeft = false;
         moveRight = false;
-        onPlatform = false;
-        createPlatforms();
+        restartRequested = true;
         repaint();
     }
 
+    // Switches from repaint() to an ActiveRenderer that pulls snapshots on its own thread
+    public void setActiveRendering(boolean activeRendering) {
+        this.activeRendering = activeRendering;
+    }
+
     @Override
     public void keyPressed(KeyEvent e) {
         if (e.getKeyCode() == KeyEvent.VK_LEFT) moveLeft = true;
         if (e.getKeyCode() == KeyEvent.VK_RIGHT) moveRight = true;
+        // The simulation and the snapshot reader belong to other threads; the tick thread checks
+        // whether the game is over
+        if (e.getKeyCode() == KeyEvent.VK_R) restartKeyPressed = true;
+        if (e.getKeyCode() == KeyEvent.VK_F3) {
+            Telemetry.toggleOverlay();
+            repaint();
+        }
     }
 
     @Override
@@ -209,16 +359,19 @@ public class Game extends JPanel implements ActionListener, KeyListener, Seriali
     public void keyTyped(KeyEvent e) {}
 
     public void updateHighScores() {
-        boolean qualifies = highScores.size() < 5 || score > highScores.get(highScores.size() - 1).score;
+        int score = simulation.getScore();
+        boolean qualifies;
+        synchronized (highScoreTable) {
+            qualifies = highScoreTable.qualifies(score);
+        }
         if (qualifies) {
             String name = JOptionPane.showInputDialog(this, "You made it to the high score list!\nEnter your name:");
             if (name == null || name.trim().isEmpty()) {
                 name = "Anonymous";
             }
-            highScores.add(new ScoreEntry(name.trim(), score));
-            highScores.sort((a, b) -> Integer.compare(b.score, a.score));
-            if (highScores.size() > 5) {
-                highScores = new ArrayList<>(highScores.subList(0, 5));
+            synchronized (highScoreTable) {
+                highScoreTable.offer(score, new ScoreEntry(name.trim(), score));
+                highScores = highScoreTable.toList();
             }
         }
     }
@@ -227,11 +380,11 @@ public class Game extends JPanel implements ActionListener, KeyListener, Seriali
         StringBuilder sb = new StringBuilder();
         sb.append("{ \"record\": [");
 
-        for (int i = 0; i < highScores.size(); i++) {
-            ScoreEntry entry = highScores.get(i);
-            sb.append("{\"name\":\"").append(entry.name)
-              .append("\",\"score\":").append(entry.score).append("}");
-            if (i < highScores.size() - 1) {
+        ArrayList<ScoreEntry> scores = highScores;
+        for (int i = 0; i < scores.size(); i++) {
+            ScoreEntry entry = scores.get(i);
+            ScoreJson.appendEntry(sb, "name", entry.name, entry.score);
+            if (i < scores.size() - 1) {
                 sb.append(",");
             }
         }
@@ -240,82 +393,135 @@ public class Game extends JPanel implements ActionListener, KeyListener, Seriali
         return sb.toString();
     }
 
+    // Queues the upload on the shared ScoreSubmitter so the tick thread never waits on the network
     public void saveHighScoresOnline() {
-        try {
-            URL url = new URL("https://api.jsonbin.io/v3/b/" + BIN_ID);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("PUT");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("X-Master-Key", MASTER_KEY);
-            connection.setDoOutput(true);
-
-            String json = buildHighScoreJson();
-
-            OutputStream os = connection.getOutputStream();
-            os.write(json.getBytes(StandardCharsets.UTF_8));
-            os.flush();
-            os.close();
+        if (!highScoresLoaded.isDone()) {
+            highScoresLoaded.thenRun(this::saveHighScoresOnline);
+            return;
+        }
+        HttpRequest request = ScoreSubmitter.newRequest(BIN_URL + BIN_ID)
+                .header("Content-Type", "application/json")
+                .header("X-Master-Key", MASTER_KEY)
+                .PUT(HttpRequest.BodyPublishers.ofString(buildHighScoreJson(), StandardCharsets.UTF_8))
+                .build();
 
-            int responseCode = connection.getResponseCode();
+        boolean queued = ScoreSubmitter.shared().submit(request, (success, responseCode) -> {
             System.out.println("Save response code: " + responseCode);
+            if (success) {
+                onlineHighScores.invalidate();
+            }
+        });
+        if (!queued) {
+            System.out.println("Score upload queue is full, high scores not saved online");
+        }
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    private void loadHighScoresInBackground() {
+        Thread loader = new Thread(() -> {
+            loadHighScoresOnline();
+            highScoresLoaded.complete(null);
+            StartupTimer.mark(StartupTimer.SCORES_LOADED);
+        }, "high-score-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // Asks the server where the score would stand among all scores, which is one small GET on the
+    // shared ScoreSubmitter instead of the whole board. The score is not added to the server's
+    // list. Runs on the tick thread, so rankGeneration only changes here and on restart.
+    private void loadGlobalRankInBackground(int score) {
+        int generation = ++rankGeneration;
+        globalRank = 0;
+        if (RANK_URL == null) {
+            return;
+        }
+        HttpRequest request = ScoreSubmitter.newRequest(RANK_URL + "?score=" + score).GET().build();
+        boolean queued = ScoreSubmitter.shared().fetch(request, (status, body) -> {
+            if (status != 200) {
+                return;
+            }
+            int[] values = new int[RANK_FIELDS.length];
+            try {
+                if (ScoreJson.readInts(new ByteArrayInputStream(body), RANK_FIELDS, values) == RANK_FIELDS.length
+                        && values[0] > 0 && rankGeneration == generation) {
+                    globalRank = (long) values[0] << 32 | values[1];
+                }
+            } catch (IOException e) {
+                System.out.println("Global rank not loaded: " + e.getMessage());
+            }
+        });
+        if (!queued) {
+            System.out.println("Score queue is full, global rank not loaded");
         }
     }
 
+    // Scores from games finished before the list arrived are merged into it, and on failure the
+    // table keeps whatever it has
     public void loadHighScoresOnline() {
         try {
-            URL url = new URL("https://api.jsonbin.io/v3/b/" + BIN_ID + "/latest");
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("X-Master-Key", MASTER_KEY);
-
-            InputStream responseStream = connection.getInputStream();
-            Scanner scanner = new Scanner(responseStream, StandardCharsets.UTF_8);
-            String responseBody = scanner.useDelimiter("\\A").next();
-            scanner.close();
-
-            highScores.clear();
-            int index = responseBody.indexOf("[");
-            int endIndex = responseBody.indexOf("]");
-            if (index != -1 && endIndex != -1) {
-                String arrayContent = responseBody.substring(index + 1, endIndex);
-                String[] entries = arrayContent.split("\\},\\{");
-
-                for (String entry : entries) {
-                    entry = entry.replace("{", "").replace("}", "").replace("\"", "");
-                    String[] parts = entry.split(",");
-                    String name = "";
-                    int score = 0;
-                    for (String part : parts) {
-                        String[] keyValue = part.split(":");
-                        if (keyValue[0].trim().equals("name")) {
-                            name = keyValue[1];
-                        } else if (keyValue[0].trim().equals("score")) {
-                            score = Integer.parseInt(keyValue[1].trim());
-                        }
-                    }
-                    highScores.add(new ScoreEntry(name, score));
+            TopK<ScoreEntry> loaded = onlineHighScores.get();
+            synchronized (highScoreTable) {
+                ArrayList<ScoreEntry> local = highScoreTable.toList();
+                applyHighScores(loaded);
+                for (ScoreEntry entry : local) {
+                    highScoreTable.offer(entry.score, entry);
                 }
+                highScores = highScoreTable.toList();
             }
-
             System.out.println("Highscores loaded from server!");
 
         } catch (Exception e) {
             e.printStackTrace();
-            highScores = new ArrayList<>();
         }
     }
 
+    // Replaces the high score table with the entries in the response
+    void parseHighScores(InputStream responseStream) throws IOException {
+        applyHighScores(readHighScores(responseStream, "application/json", highScoreTable.capacity()));
+    }
+
+    private static TopK<ScoreEntry> readHighScores(InputStream responseStream, String contentType, int capacity)
+            throws IOException {
+        TopK<ScoreEntry> loaded = new TopK<>(capacity);
+        ScoreBinary.readScores(responseStream, contentType, "name",
+                (name, score) -> loaded.offer(score, new ScoreEntry(name, score)));
+        return loaded;
+    }
+
+    // loaded may be shared with the cache, so it is only read
+    private void applyHighScores(TopK<ScoreEntry> loaded) {
+        synchronized (highScoreTable) {
+            highScoreTable.clear();
+            for (int i = 0; i < loaded.size(); i++) {
+                highScoreTable.offer(loaded.scoreAt(i), loaded.valueAt(i));
+            }
+            highScores = highScoreTable.toList();
+        }
+    }
+
+    // Pass --active to draw through a BufferStrategy on a dedicated render thread at the display's
+    // refresh rate instead of repaint(). -Dgame.tickRate=30 wakes the game loop less often on weak
+    // hardware without changing game speed.
     public static void main(String[] args) {
+        StartupTimer.mark(StartupTimer.MAIN);
+        Telemetry.registerMBeanInBackground();
+        boolean active = Arrays.asList(args).contains("--active");
         JFrame frame = new JFrame();
         Game game = new Game();
         frame.setTitle("School Project - Java Game");
         frame.setSize(500, 500);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.add(game);
         frame.setResizable(false);
-        frame.setVisible(true);
+        if (active) {
+            ActiveRenderer renderer = new ActiveRenderer(game, ActiveRenderer.displayRefreshRate());
+            game.setActiveRendering(true);
+            frame.add(renderer);
+            frame.setVisible(true);
+            renderer.start();
+            renderer.requestFocus();
+        } else {
+            frame.add(game);
+            frame.setVisible(true);
+        }
     }
 }
\ No newline at end of file
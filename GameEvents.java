@@ -0,0 +1,81 @@
+package game;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Custom Java Flight Recorder events. They cost next to nothing until a recording enables them:
+//   java -XX:StartFlightRecording=filename=game.jfr,settings=profile ... game.Game
+// and show up in JDK Mission Control under the "Game" category. Events that fire every tick are
+// only created while their type is enabled, so the game loop allocates nothing without a recording.
+public final class GameEvents {
+    static final EventType TICK = EventType.getEventType(TickEvent.class);
+    static final EventType COLLISION = EventType.getEventType(CollisionEvent.class);
+
+    private GameEvents() {
+    }
+
+    @Name("game.Tick")
+    @Label("Tick")
+    @Category("Game")
+    @Description("One run of the game loop, with the fixed steps that were due")
+    public static final class TickEvent extends Event {
+        @Label("Tick")
+        public long tick;
+
+        @Label("Interval")
+        @Description("Time since the previous tick started")
+        @Timespan(Timespan.NANOSECONDS)
+        public long interval;
+
+        @Label("Platforms")
+        public int platforms;
+    }
+
+    @Name("game.Collision")
+    @Label("Collision")
+    @Category("Game")
+    @Description("The player bounced on a platform")
+    public static final class CollisionEvent extends Event {
+        @Label("Tick")
+        public long tick;
+
+        @Label("Player X")
+        public int playerX;
+
+        @Label("Player Y")
+        public int playerY;
+
+        @Label("Scored")
+        @Description("Whether this was the first bounce on the platform")
+        public boolean scored;
+    }
+
+    @Name("game.LeaderboardIo")
+    @Label("Leaderboard I/O")
+    @Category("Game")
+    @Description("One HTTP request to a leaderboard service")
+    public static final class LeaderboardIoEvent extends Event {
+        @Label("Method")
+        public String method;
+
+        @Label("URL")
+        public String url;
+
+        @Label("Status")
+        @Description("HTTP status, or -1 if no response arrived")
+        public int status;
+
+        @Label("Attempt")
+        public int attempt;
+
+        @Label("Response Size")
+        @DataAmount
+        public long bytes;
+    }
+}
@@ -0,0 +1,95 @@
+package game;
+
+// Copy of everything needed to draw one frame of a Simulation. Filled on the tick thread by
+// Simulation.copyTo and only read by a renderer after it has been handed over through a
+// SnapshotBuffer, so drawing never sees a half-updated game.
+public class GameSnapshot {
+    int playerX, playerY;
+    int score;
+    boolean isGameOver;
+    long tick;
+    // System.nanoTime() instant this state belongs to, see FixedStepClock.stateTime()
+    long time;
+    long version;
+    int platformCount;
+    int[] platformX;
+    int[] platformY;
+    int[] platformIds;
+    boolean[] platformHit;
+
+    public GameSnapshot(int platformCapacity) {
+        platformX = new int[platformCapacity];
+        platformY = new int[platformCapacity];
+        platformIds = new int[platformCapacity];
+        platformHit = new boolean[platformCapacity];
+    }
+
+    void ensureCapacity(int platforms) {
+        if (platformX.length < platforms) {
+            platformX = new int[platforms];
+            platformY = new int[platforms];
+            platformIds = new int[platforms];
+            platformHit = new boolean[platforms];
+        }
+    }
+
+    void copyFrom(GameSnapshot other) {
+        ensureCapacity(other.platformCount);
+        playerX = other.playerX;
+        playerY = other.playerY;
+        score = other.score;
+        isGameOver = other.isGameOver;
+        tick = other.tick;
+        time = other.time;
+        version = other.version;
+        platformCount = other.platformCount;
+        System.arraycopy(other.platformX, 0, platformX, 0, platformCount);
+        System.arraycopy(other.platformY, 0, platformY, 0, platformCount);
+        System.arraycopy(other.platformIds, 0, platformIds, 0, platformCount);
+        System.arraycopy(other.platformHit, 0, platformHit, 0, platformCount);
+    }
+
+    public int getPlayerX() {
+        return playerX;
+    }
+
+    public int getPlayerY() {
+        return playerY;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public boolean isGameOver() {
+        return isGameOver;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getPlatformCount() {
+        return platformCount;
+    }
+
+    public int getPlatformX(int i) {
+        return platformX[i];
+    }
+
+    public int getPlatformY(int i) {
+        return platformY[i];
+    }
+
+    public int getPlatformId(int i) {
+        return platformIds[i];
+    }
+
+    public boolean isPlatformHit(int i) {
+        return platformHit[i];
+    }
+}
@@ -0,0 +1,210 @@
+package game;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+// Follows a server-sent-events stream (text/event-stream) on a daemon thread and hands the parsed
+// data of each event to a listener on the Swing event thread. Events that arrive while the EDT is
+// busy are coalesced, so the listener only ever sees the newest value and the EDT queue never
+// holds more than one pending delivery. When the connection drops the feed reconnects after the
+// server's retry delay and sends Last-Event-ID, so an unchanged list is not sent again.
+public class LeaderboardFeed<T> implements AutoCloseable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    // The server sends a comment line at least every 15 s, so silence this long means a dead link
+    private static final int READ_TIMEOUT_MILLIS = 45_000;
+    private static final long DEFAULT_RETRY_MILLIS = 2000;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+
+    private final String url;
+    private final CachedResource.Parser<T> parser;
+    private final Consumer<T> listener;
+    private final AtomicReference<T> pending = new AtomicReference<>();
+    private final Thread reader;
+    private volatile boolean closed = false;
+    private volatile HttpURLConnection connection;
+    private String lastEventId;
+    private long retryMillis = DEFAULT_RETRY_MILLIS;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+
+    public LeaderboardFeed(String url, CachedResource.Parser<T> parser, Consumer<T> listener) {
+        this.url = url;
+        this.parser = parser;
+        this.listener = listener;
+        reader = new Thread(this::run, "leaderboard-feed");
+        reader.setDaemon(true);
+    }
+
+    public LeaderboardFeed<T> start() {
+        reader.start();
+        return this;
+    }
+
+    // Stops the feed; no listener call happens after this returns on the EDT
+    @Override
+    public void close() {
+        closed = true;
+        HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+        reader.interrupt();
+    }
+
+    private void run() {
+        long failures = 0;
+        while (!closed) {
+            try {
+                if (follow()) {
+                    failures = 0;
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Leaderboard stream " + url + " failed: " + e.getMessage());
+                }
+            }
+            if (closed) {
+                return;
+            }
+            // Back off while the server keeps refusing, starting from its own retry delay
+            failures++;
+            long delay = Math.min(MAX_RETRY_MILLIS, retryMillis << Math.min(failures - 1, 4));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Reads one connection until it ends. Returns true if the server accepted the stream.
+    private boolean follow() throws IOException {
+        long start = System.nanoTime();
+        GameEvents.LeaderboardIoEvent event = new GameEvents.LeaderboardIoEvent();
+        event.begin();
+        HttpURLConnection current = (HttpURLConnection) new URL(url).openConnection();
+        current.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        current.setReadTimeout(READ_TIMEOUT_MILLIS);
+        current.setUseCaches(false);
+        current.setRequestProperty("Accept", "text/event-stream");
+        if (lastEventId != null) {
+            current.setRequestProperty("Last-Event-ID", lastEventId);
+        }
+        connection = current;
+        try {
+            int status;
+            try {
+                status = current.getResponseCode();
+            } catch (IOException e) {
+                Telemetry.leaderboardIo(event, start, "GET", url, -1, 1, 0);
+                throw e;
+            }
+            Telemetry.leaderboardIo(event, start, "GET", url, status, 1, 0);
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " from " + url);
+            }
+            connects.increment();
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(current.getInputStream(), StandardCharsets.UTF_8))) {
+                readEvents(in);
+            }
+            return true;
+        } finally {
+            connection = null;
+            current.disconnect();
+        }
+    }
+
+    private void readEvents(BufferedReader in) throws IOException {
+        StringBuilder data = new StringBuilder();
+        String id = null;
+        String line;
+        while (!closed && (line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                // A blank line ends the event
+                if (id != null) {
+                    lastEventId = id;
+                    id = null;
+                }
+                if (data.length() > 0) {
+                    dispatch(data.toString());
+                    data.setLength(0);
+                }
+                continue;
+            }
+            if (line.startsWith(":")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+            switch (field) {
+                case "data":
+                    if (data.length() > 0) {
+                        data.append('\n');
+                    }
+                    data.append(value);
+                    break;
+                case "id":
+                    id = value;
+                    break;
+                case "retry":
+                    try {
+                        retryMillis = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        // Ignored, as the spec says
+                    }
+                    break;
+                default:
+                    // "event" and unknown fields: this feed only carries one kind of event
+                    break;
+            }
+        }
+    }
+
+    // Event data is text, so the stream always carries the JSON form
+    private void dispatch(String data) throws IOException {
+        T value = parser.parse(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), "application/json");
+        events.increment();
+        if (pending.getAndSet(value) == null) {
+            SwingUtilities.invokeLater(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        T value = pending.getAndSet(null);
+        if (value != null && !closed) {
+            delivered.increment();
+            listener.accept(value);
+        }
+    }
+
+    // Events received from the server
+    public long getEvents() {
+        return events.sum();
+    }
+
+    // Events handed to the listener; the difference to getEvents() was coalesced
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    // Successful connections, including reconnects
+    public long getConnects() {
+        return connects.sum();
+    }
+}
@@ -0,0 +1,218 @@
+package game;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+// Offline leaderboard kept on disk as two files:
+//   <name>.log   memory-mapped append-only log of fixed-size score records
+//   <name>.snap  sorted snapshot of the best entries, written when the log fills up
+// Every record carries a CRC, so a write torn by a crash is detected on load and simply
+// overwritten by the next append. Snapshots are written to a temp file and atomically renamed,
+// and both files carry a generation number so a crash between writing a snapshot and resetting
+// the log never counts the same scores twice. Cold load reads one small snapshot and scans at
+// most one log's worth of records.
+public class LocalScoreStore implements Closeable {
+    static final int RECORD_SIZE = 64;
+    // crc(4) score(4) time(8) nameLength(1) name(47)
+    private static final int MAX_NAME_BYTES = RECORD_SIZE - 17;
+    private static final int LOG_MAGIC = 0x4C424C47;      // "LBLG"
+    private static final int SNAPSHOT_MAGIC = 0x4C42534E; // "LBSN"
+    private static final int FORMAT_VERSION = 1;
+    // magic(4) version(4) generation(8)
+    private static final int LOG_HEADER_SIZE = 16;
+    // magic(4) version(4) generation(8) count(4)
+    private static final int SNAPSHOT_HEADER_SIZE = 20;
+    private static final int DEFAULT_LOG_CAPACITY = 256;
+
+    private final Path logPath;
+    private final Path snapshotPath;
+    private final int logCapacity;
+    private final FileChannel logChannel;
+    private final MappedByteBuffer log;
+    private final CRC32 crc = new CRC32();
+    // Best entries, highest score first
+    private final TopK<ScoreEntry> top;
+    private long generation;
+    private int logRecords = 0;
+
+    public LocalScoreStore(Path directory, String name, int maxEntries) throws IOException {
+        this(directory, name, maxEntries, DEFAULT_LOG_CAPACITY);
+    }
+
+    LocalScoreStore(Path directory, String name, int maxEntries, int logCapacity) throws IOException {
+        this.top = new TopK<>(maxEntries);
+        this.logCapacity = logCapacity;
+        logPath = directory.resolve(name + ".log");
+        snapshotPath = directory.resolve(name + ".snap");
+
+        long snapshotGeneration = loadSnapshot();
+        logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, LOG_HEADER_SIZE + (long) logCapacity * RECORD_SIZE);
+
+        if (log.getInt(0) != LOG_MAGIC || log.getInt(4) != FORMAT_VERSION) {
+            resetLog(snapshotGeneration + 1);
+        } else if (log.getLong(8) <= snapshotGeneration) {
+            // Crashed after the snapshot was written but before the log was reset
+            resetLog(snapshotGeneration + 1);
+        } else {
+            generation = log.getLong(8);
+            scanLog();
+        }
+    }
+
+    // Scores the store keeps, highest first. Ties keep insertion order.
+    public synchronized ArrayList<ScoreEntry> topScores() {
+        return top.toList();
+    }
+
+    // Names longer than a record allows are cut to fit, in memory as well as on disk
+    public synchronized void append(String name, int score) throws IOException {
+        name = new String(truncatedUtf8(name), StandardCharsets.UTF_8);
+        int offset = LOG_HEADER_SIZE + logRecords * RECORD_SIZE;
+        writeRecord(log, offset, name, score, System.currentTimeMillis());
+        log.force(offset, RECORD_SIZE);
+        logRecords++;
+        insert(new ScoreEntry(name, score));
+        if (logRecords == logCapacity) {
+            compact();
+        }
+    }
+
+    // Writes the current best entries as the new snapshot and empties the log
+    public synchronized void compact() throws IOException {
+        int count = top.size();
+        ByteBuffer snapshot = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE + count * RECORD_SIZE + 4);
+        snapshot.putInt(0, SNAPSHOT_MAGIC);
+        snapshot.putInt(4, FORMAT_VERSION);
+        snapshot.putLong(8, generation);
+        snapshot.putInt(16, count);
+        for (int i = 0; i < count; i++) {
+            ScoreEntry entry = top.valueAt(i);
+            writeRecord(snapshot, SNAPSHOT_HEADER_SIZE + i * RECORD_SIZE, entry.name, entry.score, 0);
+        }
+        int crcOffset = SNAPSHOT_HEADER_SIZE + count * RECORD_SIZE;
+        snapshot.putInt(crcOffset, checksum(snapshot, 0, crcOffset));
+
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                out.write(snapshot);
+            }
+            out.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        resetLog(generation + 1);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.force();
+        logChannel.close();
+    }
+
+    private long loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return 0;
+        }
+        ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+        int length = snapshot.capacity();
+        if (length < SNAPSHOT_HEADER_SIZE + 4
+                || snapshot.getInt(0) != SNAPSHOT_MAGIC || snapshot.getInt(4) != FORMAT_VERSION
+                || snapshot.getInt(length - 4) != checksum(snapshot, 0, length - 4)) {
+            System.out.println("Ignoring damaged leaderboard snapshot " + snapshotPath);
+            return 0;
+        }
+        int count = snapshot.getInt(16);
+        for (int i = 0; i < count; i++) {
+            ScoreEntry entry = readRecord(snapshot, SNAPSHOT_HEADER_SIZE + i * RECORD_SIZE);
+            if (entry != null) {
+                insert(entry);
+            }
+        }
+        return snapshot.getLong(8);
+    }
+
+    // Replays valid records until the first empty or torn one
+    private void scanLog() {
+        logRecords = 0;
+        while (logRecords < logCapacity) {
+            ScoreEntry entry = readRecord(log, LOG_HEADER_SIZE + logRecords * RECORD_SIZE);
+            if (entry == null) {
+                break;
+            }
+            insert(entry);
+            logRecords++;
+        }
+    }
+
+    private void resetLog(long newGeneration) {
+        for (int offset = LOG_HEADER_SIZE; offset < log.capacity(); offset += 8) {
+            log.putLong(offset, 0);
+        }
+        log.putInt(0, LOG_MAGIC);
+        log.putInt(4, FORMAT_VERSION);
+        log.putLong(8, newGeneration);
+        log.force();
+        generation = newGeneration;
+        logRecords = 0;
+    }
+
+    private void insert(ScoreEntry entry) {
+        top.offer(entry.score, entry);
+    }
+
+    // The CRC is written last so a record is only valid once all of it has been written
+    private void writeRecord(ByteBuffer buffer, int offset, String name, int score, long time) {
+        byte[] nameBytes = truncatedUtf8(name);
+        buffer.putInt(offset + 4, score);
+        buffer.putLong(offset + 8, time);
+        buffer.put(offset + 16, (byte) nameBytes.length);
+        for (int i = 0; i < MAX_NAME_BYTES; i++) {
+            buffer.put(offset + 17 + i, i < nameBytes.length ? nameBytes[i] : 0);
+        }
+        buffer.putInt(offset, checksum(buffer, offset + 4, offset + RECORD_SIZE));
+    }
+
+    private ScoreEntry readRecord(ByteBuffer buffer, int offset) {
+        int length = buffer.get(offset + 16) & 0xFF;
+        if (length > MAX_NAME_BYTES || buffer.getInt(offset) != checksum(buffer, offset + 4, offset + RECORD_SIZE)) {
+            return null;
+        }
+        byte[] nameBytes = new byte[length];
+        buffer.get(offset + 17, nameBytes);
+        return new ScoreEntry(new String(nameBytes, StandardCharsets.UTF_8), buffer.getInt(offset + 4));
+    }
+
+    private int checksum(ByteBuffer buffer, int from, int to) {
+        crc.reset();
+        crc.update(buffer.duplicate().limit(to).position(from));
+        return (int) crc.getValue();
+    }
+
+    // UTF-8 bytes of the name, cut at a character boundary to fit in a record
+    private static byte[] truncatedUtf8(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_NAME_BYTES) {
+            return bytes;
+        }
+        int cut = MAX_NAME_BYTES;
+        while (cut > 0 && (bytes[cut] & 0xC0) == 0x80) {
+            cut--;
+        }
+        byte[] truncated = new byte[cut];
+        System.arraycopy(bytes, 0, truncated, 0, cut);
+        return truncated;
+    }
+}
@@ -0,0 +1,214 @@
+package game;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// A recorded game: the Simulation settings and seed plus every change of input, which is all it
+// takes to play the game again tick for tick. The binary form is
+//   magic "GRPL", version byte, varint platformCount, varint initialSpawnRange,
+//   8-byte seed, varint ticks, varint transitionCount,
+//   per transition: varint (ticks since the previous transition << 2 | input bits)
+// Input starts as INPUT_NONE and only changes are stored, so a five minute game where the
+// player changes direction a few times a second fits in a few kilobytes.
+public final class Replay {
+    private static final int MAGIC = 0x4752504C; // "GRPL"
+    private static final int FORMAT_VERSION = 1;
+    // Limits for replays read from untrusted sources; an hour of play is far beyond a real game
+    static final int MAX_TICKS = 60 * 60 * 1000 / Simulation.TICK_MILLIS;
+    // The settings gametest plays with. fromBytes rejects any other, so a client can neither pick
+    // an easier world nor make the server simulate a huge one.
+    public static final int PLATFORM_COUNT = Simulation.DEFAULT_PLATFORM_COUNT;
+    public static final int SPAWN_RANGE = 300;
+
+    private final int platformCount;
+    private final int initialSpawnRange;
+    private final long seed;
+    private final int ticks;
+    // Tick from which each input applies, ascending
+    private final int[] transitionTicks;
+    private final byte[] transitionInputs;
+
+    private Replay(int platformCount, int initialSpawnRange, long seed, int ticks,
+                   int[] transitionTicks, byte[] transitionInputs) {
+        this.platformCount = platformCount;
+        this.initialSpawnRange = initialSpawnRange;
+        this.seed = seed;
+        this.ticks = ticks;
+        this.transitionTicks = transitionTicks;
+        this.transitionInputs = transitionInputs;
+    }
+
+    public int getTicks() {
+        return ticks;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getTransitionCount() {
+        return transitionTicks.length;
+    }
+
+    // Plays the game again and returns its score, or -1 unless the player falls on exactly the
+    // last recorded tick, i.e. the replay is one complete game
+    public int simulate() {
+        Simulation simulation = new Simulation(platformCount, initialSpawnRange, seed);
+        int next = 0;
+        int input = Simulation.INPUT_NONE;
+        for (int tick = 0; tick < ticks; tick++) {
+            while (next < transitionTicks.length && transitionTicks[next] == tick) {
+                input = transitionInputs[next++];
+            }
+            boolean fell = simulation.step(input);
+            if (fell != (tick == ticks - 1)) {
+                return -1;
+            }
+        }
+        return ticks == 0 ? -1 : simulation.getScore();
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + transitionTicks.length * 2);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write(MAGIC >>> shift);
+        }
+        out.write(FORMAT_VERSION);
+        writeVarint(out, platformCount);
+        writeVarint(out, initialSpawnRange);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (seed >>> shift));
+        }
+        writeVarint(out, ticks);
+        writeVarint(out, transitionTicks.length);
+        int previous = 0;
+        for (int i = 0; i < transitionTicks.length; i++) {
+            writeVarint(out, (transitionTicks[i] - previous) << 2 | transitionInputs[i]);
+            previous = transitionTicks[i];
+        }
+        return out.toByteArray();
+    }
+
+    public static Replay fromBytes(byte[] bytes) throws IOException {
+        Reader in = new Reader(bytes);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            magic = magic << 8 | in.readByte();
+        }
+        if (magic != MAGIC || in.readByte() != FORMAT_VERSION) {
+            throw new IOException("Not a replay or unsupported version");
+        }
+        int platformCount = in.readVarint(PLATFORM_COUNT);
+        int initialSpawnRange = in.readVarint(SPAWN_RANGE);
+        if (platformCount != PLATFORM_COUNT || initialSpawnRange != SPAWN_RANGE) {
+            throw new IOException("Replay not recorded with the game's settings");
+        }
+        long seed = 0;
+        for (int i = 0; i < 8; i++) {
+            seed = seed << 8 | in.readByte();
+        }
+        int ticks = in.readVarint(MAX_TICKS);
+        int count = in.readVarint(ticks);
+        int[] transitionTicks = new int[count];
+        byte[] transitionInputs = new byte[count];
+        int tick = 0;
+        for (int i = 0; i < count; i++) {
+            int value = in.readVarint(Integer.MAX_VALUE);
+            tick += value >>> 2;
+            if (tick >= ticks) {
+                throw new IOException("Malformed replay: transition after the last tick");
+            }
+            transitionTicks[i] = tick;
+            transitionInputs[i] = (byte) (value & 3);
+        }
+        if (in.position != bytes.length) {
+            throw new IOException("Malformed replay: trailing bytes");
+        }
+        return new Replay(platformCount, initialSpawnRange, seed, ticks, transitionTicks, transitionInputs);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class Reader {
+        final byte[] bytes;
+        int position = 0;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() throws IOException {
+            if (position == bytes.length) {
+                throw new IOException("Malformed replay: truncated");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        // Non-negative varint no larger than max
+        int readVarint(int max) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value > max) {
+                        throw new IOException("Malformed replay: value " + value + " exceeds " + max);
+                    }
+                    return (int) value;
+                }
+            }
+            throw new IOException("Malformed replay: varint too long");
+        }
+    }
+
+    // Records a game as it is played. Create it right after the simulation is reset and route
+    // every step() of that game through it.
+    public static final class Recorder {
+        private final Simulation simulation;
+        private final int platformCount;
+        private final int initialSpawnRange;
+        private final long seed;
+        private int ticks = 0;
+        private int lastInput = Simulation.INPUT_NONE;
+        private int[] transitionTicks = new int[64];
+        private byte[] transitionInputs = new byte[64];
+        private int transitions = 0;
+
+        public Recorder(Simulation simulation) {
+            this.simulation = simulation;
+            platformCount = simulation.getPlatformCount();
+            initialSpawnRange = simulation.getInitialSpawnRange();
+            seed = simulation.getSeed();
+        }
+
+        public boolean step(int input) {
+            if (!simulation.isGameOver() && ticks < MAX_TICKS) {
+                input &= Simulation.INPUT_LEFT | Simulation.INPUT_RIGHT;
+                if (input != lastInput) {
+                    if (transitions == transitionTicks.length) {
+                        transitionTicks = Arrays.copyOf(transitionTicks, transitions * 2);
+                        transitionInputs = Arrays.copyOf(transitionInputs, transitions * 2);
+                    }
+                    transitionTicks[transitions] = ticks;
+                    transitionInputs[transitions] = (byte) input;
+                    transitions++;
+                    lastInput = input;
+                }
+                ticks++;
+            }
+            return simulation.step(input);
+        }
+
+        public Replay finish() {
+            return new Replay(platformCount, initialSpawnRange, seed, ticks,
+                    Arrays.copyOf(transitionTicks, transitions), Arrays.copyOf(transitionInputs, transitions));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package game;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Checks claimed scores by playing their replays again headlessly. A replay only counts if it is
+// one complete game that ends with exactly the claimed score. Batches are split across a
+// ForkJoinPool; a single replay is also run on the pool so that callers on many request threads
+// never use more cores than the pool has.
+public class ReplayVerifier {
+    // Replays per task before a batch stops splitting; a five minute replay takes about a millisecond
+    private static final int BATCH_THRESHOLD = 4;
+
+    private final ForkJoinPool pool;
+
+    public ReplayVerifier() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ReplayVerifier(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public static boolean matches(Replay replay, int claimedScore) {
+        return claimedScore >= 0 && replay.simulate() == claimedScore;
+    }
+
+    public boolean verify(Replay replay, int claimedScore) throws InterruptedException {
+        try {
+            return pool.submit(() -> matches(replay, claimedScore)).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replay verification failed", e.getCause());
+        }
+    }
+
+    // result[i] tells whether replays.get(i) reaches claimedScores[i]
+    public boolean[] verifyAll(List<Replay> replays, int[] claimedScores) {
+        if (replays.size() != claimedScores.length) {
+            throw new IllegalArgumentException("one claimed score per replay required");
+        }
+        boolean[] result = new boolean[replays.size()];
+        pool.invoke(new VerifyTask(replays, claimedScores, result, 0, replays.size()));
+        return result;
+    }
+
+    private static final class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Replay> replays;
+        private final int[] claimedScores;
+        private final boolean[] result;
+        private final int from;
+        private final int to;
+
+        VerifyTask(List<Replay> replays, int[] claimedScores, boolean[] result, int from, int to) {
+            this.replays = replays;
+            this.claimedScores = claimedScores;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    result[i] = matches(replays.get(i), claimedScores[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new VerifyTask(replays, claimedScores, result, from, middle),
+                    new VerifyTask(replays, claimedScores, result, middle, to));
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package game;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Compact binary form of a score list, the alternative to ScoreJson that clients ask for with
+// Accept: application/x-leaderboard-scores. Layout: one version byte, the entry count as a varint,
+// then per entry the UTF-8 name length as a varint, the name bytes and the score as a zigzag
+// varint. Nothing is escaped or parsed as text, so decoding an entry is a couple of byte reads plus
+// the name string, and a typical entry is a quarter of its JSON size. An upload is a list of one.
+public final class ScoreBinary {
+    public static final String CONTENT_TYPE = "application/x-leaderboard-scores";
+    // What clients that read both formats send; servers that only know JSON answer with JSON
+    public static final String ACCEPT = CONTENT_TYPE + ", application/json;q=0.5";
+    static final int VERSION = 1;
+    static final int MAX_NAME_BYTES = 0xFFFF;
+
+    // Builds a list of exactly count entries
+    public static final class Encoder {
+        private final int count;
+        private int added = 0;
+        private byte[] bytes;
+        private int length = 0;
+
+        public Encoder(int count) {
+            this.count = count;
+            bytes = new byte[16 + count * 16];
+            writeByte(VERSION);
+            writeVarint(count);
+        }
+
+        public Encoder add(String name, int score) {
+            if (added == count) {
+                throw new IllegalStateException("more than " + count + " entries");
+            }
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            int nameLength = Math.min(utf8.length, MAX_NAME_BYTES);
+            writeVarint(nameLength);
+            ensure(nameLength);
+            System.arraycopy(utf8, 0, bytes, length, nameLength);
+            length += nameLength;
+            writeVarint((score << 1) ^ (score >> 31));
+            added++;
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            if (added != count) {
+                throw new IllegalStateException(added + " of " + count + " entries added");
+            }
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            bytes[length++] = (byte) b;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private int limit = 0;
+    private long offset = 0;
+
+    private ScoreBinary(InputStream in) {
+        this.in = in;
+    }
+
+    // Reads every entry of a list. Returns the number of entries reported.
+    public static int readScores(InputStream in, ScoreJson.EntryHandler handler) throws IOException {
+        ScoreBinary reader = new ScoreBinary(in);
+        int count = reader.readHeader();
+        for (int i = 0; i < count; i++) {
+            reader.readEntry(handler);
+        }
+        return count;
+    }
+
+    // Reads the first entry of a list, e.g. an upload body. Returns false if the list is empty.
+    public static boolean readEntry(InputStream in, ScoreJson.EntryHandler handler) throws IOException {
+        ScoreBinary reader = new ScoreBinary(in);
+        if (reader.readHeader() == 0) {
+            return false;
+        }
+        reader.readEntry(handler);
+        return true;
+    }
+
+    // Reads a score list in the format contentType names: binary for CONTENT_TYPE, otherwise JSON
+    // objects with a nameKey field, so servers that do not know the binary form still work
+    public static int readScores(InputStream in, String contentType, String nameKey, ScoreJson.EntryHandler handler)
+            throws IOException {
+        return isBinary(contentType) ? readScores(in, handler) : ScoreJson.readScores(in, nameKey, handler);
+    }
+
+    // True if a Content-Type header names the binary form, parameters ignored
+    public static boolean isBinary(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String type = semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+        return type.trim().equalsIgnoreCase(CONTENT_TYPE);
+    }
+
+    // True if an Accept header names the binary form with at least the quality it gives JSON.
+    // Wildcards only count for JSON, which stays the default for clients that never asked.
+    public static boolean prefersBinary(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        double binary = 0;
+        double json = 0;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String type = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (type.equals(CONTENT_TYPE)) {
+                binary = Math.max(binary, quality);
+            } else if (type.equals("application/json") || type.equals("application/*") || type.equals("*/*")) {
+                json = Math.max(json, quality);
+            }
+        }
+        return binary > 0 && binary >= json;
+    }
+
+    private int readHeader() throws IOException {
+        int version = read();
+        if (version != VERSION) {
+            throw malformed(version == -1 ? "end of input" : "version " + version);
+        }
+        int count = readVarint();
+        if (count < 0) {
+            throw malformed("count " + count);
+        }
+        return count;
+    }
+
+    private void readEntry(ScoreJson.EntryHandler handler) throws IOException {
+        int length = readVarint();
+        if (length < 0 || length > MAX_NAME_BYTES) {
+            throw malformed("name length " + length);
+        }
+        String name;
+        if (limit - position >= length) {
+            name = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+        } else {
+            // The name continues in the next read
+            byte[] bytes = new byte[length];
+            int copied = limit - position;
+            System.arraycopy(buffer, position, bytes, 0, copied);
+            position = limit;
+            while (copied < length) {
+                if (!fill()) {
+                    throw malformed("end of input");
+                }
+                int n = Math.min(limit, length - copied);
+                System.arraycopy(buffer, 0, bytes, copied, n);
+                copied += n;
+                position = n;
+            }
+            name = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int zigzag = readVarint();
+        handler.entry(name, (zigzag >>> 1) ^ -(zigzag & 1));
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = read();
+            if (b == -1) {
+                throw malformed("end of input");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw malformed("varint longer than 5 bytes");
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private IOException malformed(String found) {
+        return new IOException("Malformed binary leaderboard: unexpected " + found + " at byte " + (offset + position));
+    }
+}
@@ -0,0 +1,428 @@
+package game;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Small streaming JSON codec for leaderboard payloads. The reader walks the UTF-8 bytes of a
+// response straight from the InputStream: it finds the first array, and for every object in it
+// reports the name field and the "score" field to a handler. Keys are compared as bytes and
+// unknown fields are skipped without building strings, so the only allocation per entry is the
+// name itself. The writer side produces properly escaped entries for uploads.
+public final class ScoreJson {
+    public interface EntryHandler {
+        void entry(String name, int score);
+    }
+
+    private static final byte[] SCORE_KEY = "score".getBytes(StandardCharsets.UTF_8);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private int limit = 0;
+    private long offset = 0;
+    // Decoded bytes of the string currently being read
+    private byte[] text = new byte[64];
+    private int textLength = 0;
+
+    private ScoreJson(InputStream in) {
+        this.in = in;
+    }
+
+    // Reads every object of the first array in the stream that has both a string field named
+    // nameKey and a numeric "score" field. Reading stops at the end of that array; a payload
+    // without any array yields no entries. Returns the number of entries reported.
+    public static int readScores(InputStream in, String nameKey, EntryHandler handler) throws IOException {
+        return new ScoreJson(in).readFirstArray(nameKey.getBytes(StandardCharsets.UTF_8), handler);
+    }
+
+    // Reads the first object in the stream, e.g. an upload body. Returns false if it has no string
+    // nameKey field or no numeric "score" field.
+    public static boolean readEntry(InputStream in, String nameKey, EntryHandler handler) throws IOException {
+        ScoreJson reader = new ScoreJson(in);
+        int c;
+        while ((c = reader.read()) != '{') {
+            if (c == -1) {
+                return false;
+            }
+            if (c == '"') {
+                reader.readString();
+            }
+        }
+        return reader.readObject(nameKey.getBytes(StandardCharsets.UTF_8), handler);
+    }
+
+    // Reads the numeric fields named keys of the first object in the stream into values, at the
+    // same positions; fields that are missing or not numbers leave their value unchanged. Returns
+    // the number of fields found.
+    public static int readInts(InputStream in, String[] keys, int[] values) throws IOException {
+        ScoreJson reader = new ScoreJson(in);
+        byte[][] keyBytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            keyBytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+        }
+        int c;
+        while ((c = reader.read()) != '{') {
+            if (c == -1) {
+                return 0;
+            }
+            if (c == '"') {
+                reader.readString();
+            }
+        }
+        int found = 0;
+        c = reader.nextNonWhitespace();
+        while (c != '}') {
+            if (c != '"') {
+                throw reader.malformed(c);
+            }
+            reader.readString();
+            int field = -1;
+            for (int i = 0; i < keyBytes.length && field < 0; i++) {
+                if (reader.textEquals(keyBytes[i])) {
+                    field = i;
+                }
+            }
+            c = reader.nextNonWhitespace();
+            if (c != ':') {
+                throw reader.malformed(c);
+            }
+            c = reader.nextNonWhitespace();
+            if (field >= 0 && (c == '-' || (c >= '0' && c <= '9'))) {
+                values[field] = reader.readInt(c);
+                found++;
+            } else {
+                reader.skipValue(c);
+            }
+            c = reader.nextNonWhitespace();
+            if (c == ',') {
+                c = reader.nextNonWhitespace();
+            } else if (c != '}') {
+                throw reader.malformed(c);
+            }
+        }
+        return found;
+    }
+
+    // Appends {"<nameKey>":"<name>","score":<score>} with the name escaped
+    public static StringBuilder appendEntry(StringBuilder sb, String nameKey, String name, int score) {
+        sb.append('{');
+        appendQuoted(sb, nameKey).append(':');
+        appendQuoted(sb, name).append(",\"score\":").append(score);
+        return sb.append('}');
+    }
+
+    public static StringBuilder appendQuoted(StringBuilder sb, String s) {
+        sb.append('"');
+        int start = 0;
+        while (start < s.length() && !needsEscape(s.charAt(start))) {
+            start++;
+        }
+        // Most names need no escaping at all and are appended in one go
+        sb.append(s, 0, start);
+        for (int i = start; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    private static boolean needsEscape(char c) {
+        return c < 0x20 || c == '"' || c == '\\';
+    }
+
+    private int readFirstArray(byte[] nameKey, EntryHandler handler) throws IOException {
+        int c;
+        while ((c = read()) != '[') {
+            if (c == -1) {
+                return 0;
+            }
+            if (c == '"') {
+                readString();
+            }
+        }
+
+        int count = 0;
+        c = nextNonWhitespace();
+        if (c == ']') {
+            return 0;
+        }
+        while (true) {
+            if (c == '{') {
+                if (readObject(nameKey, handler)) {
+                    count++;
+                }
+            } else {
+                skipValue(c);
+            }
+            c = nextNonWhitespace();
+            if (c == ']') {
+                return count;
+            }
+            if (c != ',') {
+                throw malformed(c);
+            }
+            c = nextNonWhitespace();
+        }
+    }
+
+    // Called after the opening brace. Returns true if an entry was reported.
+    private boolean readObject(byte[] nameKey, EntryHandler handler) throws IOException {
+        String name = null;
+        int score = 0;
+        boolean hasScore = false;
+
+        int c = nextNonWhitespace();
+        if (c == '}') {
+            return false;
+        }
+        while (true) {
+            if (c != '"') {
+                throw malformed(c);
+            }
+            readString();
+            boolean isName = textEquals(nameKey);
+            boolean isScore = !isName && textEquals(SCORE_KEY);
+            c = nextNonWhitespace();
+            if (c != ':') {
+                throw malformed(c);
+            }
+            c = nextNonWhitespace();
+            if (isName && c == '"') {
+                readString();
+                name = new String(text, 0, textLength, StandardCharsets.UTF_8);
+            } else if (isScore && (c == '-' || (c >= '0' && c <= '9'))) {
+                score = readInt(c);
+                hasScore = true;
+            } else {
+                skipValue(c);
+            }
+
+            c = nextNonWhitespace();
+            if (c == '}') {
+                break;
+            }
+            if (c != ',') {
+                throw malformed(c);
+            }
+            c = nextNonWhitespace();
+        }
+
+        if (name != null && hasScore) {
+            handler.entry(name, score);
+            return true;
+        }
+        return false;
+    }
+
+    // Reads a number whose first byte has already been consumed. Plain integers are parsed in
+    // place; fractions and exponents take a slower path and are truncated. Values outside the
+    // int range are clamped.
+    private int readInt(int first) throws IOException {
+        boolean negative = first == '-';
+        long value = negative ? 0 : first - '0';
+        int c;
+        while ((c = peek()) >= '0' && c <= '9') {
+            position++;
+            if (value <= Integer.MAX_VALUE + 1L) {
+                value = value * 10 + (c - '0');
+            }
+        }
+        if (c == '.' || c == 'e' || c == 'E') {
+            textLength = 0;
+            if (negative) {
+                appendByte('-');
+            }
+            for (byte b : Long.toString(value).getBytes(StandardCharsets.US_ASCII)) {
+                appendByte(b);
+            }
+            while ((c = peek()) == '.' || c == 'e' || c == 'E' || c == '+' || c == '-' || (c >= '0' && c <= '9')) {
+                appendByte(c);
+                position++;
+            }
+            try {
+                double d = Double.parseDouble(new String(text, 0, textLength, StandardCharsets.US_ASCII));
+                return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, d));
+            } catch (NumberFormatException e) {
+                throw malformed(c);
+            }
+        }
+        value = negative ? -value : value;
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    // Skips one value whose first byte has already been consumed
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = read();
+                if (c == -1) {
+                    throw malformed(c);
+                } else if (c == '"') {
+                    readString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else if (c == -1 || c == ',' || c == '}' || c == ']' || c == ':') {
+            throw malformed(c);
+        } else {
+            // number, true, false or null
+            while ((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+                position++;
+            }
+        }
+    }
+
+    // Reads the rest of a string after its opening quote into text, resolving escapes
+    private void readString() throws IOException {
+        textLength = 0;
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == -1) {
+                throw malformed(c);
+            }
+            if (c != '\\') {
+                appendByte(c);
+                continue;
+            }
+            c = read();
+            switch (c) {
+                case '"': case '\\': case '/': appendByte(c); break;
+                case 'n': appendByte('\n'); break;
+                case 'r': appendByte('\r'); break;
+                case 't': appendByte('\t'); break;
+                case 'b': appendByte('\b'); break;
+                case 'f': appendByte('\f'); break;
+                case 'u': appendCodePoint(readUnicodeEscape()); break;
+                default: throw malformed(c);
+            }
+        }
+    }
+
+    private int readUnicodeEscape() throws IOException {
+        int unit = readHex4();
+        if (Character.isHighSurrogate((char) unit) && peek() == '\\') {
+            position++;
+            if (read() != 'u') {
+                throw malformed('\\');
+            }
+            int low = readHex4();
+            if (Character.isLowSurrogate((char) low)) {
+                return Character.toCodePoint((char) unit, (char) low);
+            }
+            appendCodePoint(0xFFFD);
+            unit = low;
+        }
+        return Character.isSurrogate((char) unit) ? 0xFFFD : unit;
+    }
+
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = read();
+            int digit = Character.digit(c, 16);
+            if (c == -1 || digit < 0) {
+                throw malformed(c);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void appendCodePoint(int cp) {
+        if (cp < 0x80) {
+            appendByte(cp);
+        } else if (cp < 0x800) {
+            appendByte(0xC0 | (cp >> 6));
+            appendByte(0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            appendByte(0xE0 | (cp >> 12));
+            appendByte(0x80 | ((cp >> 6) & 0x3F));
+            appendByte(0x80 | (cp & 0x3F));
+        } else {
+            appendByte(0xF0 | (cp >> 18));
+            appendByte(0x80 | ((cp >> 12) & 0x3F));
+            appendByte(0x80 | ((cp >> 6) & 0x3F));
+            appendByte(0x80 | (cp & 0x3F));
+        }
+    }
+
+    private void appendByte(int b) {
+        if (textLength == text.length) {
+            text = Arrays.copyOf(text, text.length * 2);
+        }
+        text[textLength++] = (byte) b;
+    }
+
+    private boolean textEquals(byte[] key) {
+        return Arrays.equals(text, 0, textLength, key, 0, key.length);
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private IOException malformed(int c) {
+        String found = c == -1 ? "end of input" : "'" + (char) c + "'";
+        return new IOException("Malformed leaderboard JSON: unexpected " + found + " at byte " + (offset + position));
+    }
+}
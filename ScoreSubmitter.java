@@ -0,0 +1,162 @@
+package game;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sends score uploads off the game and Swing threads. submit() only enqueues and returns; a small
+// pool of daemon workers sends the request over one shared HttpClient (so connections are kept
+// alive between games), retries failures with exponential backoff and then reports the outcome.
+// Small reads that go with a game over, like the player's rank, use the same client and workers
+// through fetch().
+public class ScoreSubmitter {
+    public interface Callback {
+        // Called on a worker thread after the request succeeded or the last attempt failed.
+        // statusCode is -1 when no response was received at all.
+        void onComplete(boolean success, int statusCode);
+    }
+
+    public interface ResponseCallback {
+        // Called on a worker thread; statusCode is -1 and body null when no response was received
+        void onResponse(int statusCode, byte[] body);
+    }
+
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(3);
+    public static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final int DEFAULT_WORKERS = 2;
+    private static final int DEFAULT_QUEUE_CAPACITY = 32;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BACKOFF_MILLIS = 250;
+
+    private static ScoreSubmitter shared;
+
+    private final HttpClient client;
+    private final ThreadPoolExecutor executor;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+
+    public static synchronized ScoreSubmitter shared() {
+        if (shared == null) {
+            shared = new ScoreSubmitter(DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY,
+                                        DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+        }
+        return shared;
+    }
+
+    public ScoreSubmitter(int workers, int queueCapacity, int maxAttempts, long initialBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "score-submitter-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        client = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    // Request builder with the per-request timeout already applied
+    public static HttpRequest.Builder newRequest(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT);
+    }
+
+    // Queues the request and returns immediately. Returns false if the queue is full, in which
+    // case the callback is never called and the caller should fall back on its own.
+    public boolean submit(HttpRequest request, Callback callback) {
+        try {
+            executor.execute(() -> send(request, callback));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // Like submit(), but sends the request once and hands the response body to the callback. An
+    // answer that arrives after a retry's backoff would be out of date anyway.
+    public boolean fetch(HttpRequest request, ResponseCallback callback) {
+        try {
+            executor.execute(() -> receive(request, callback));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void receive(HttpRequest request, ResponseCallback callback) {
+        long start = System.nanoTime();
+        GameEvents.LeaderboardIoEvent event = new GameEvents.LeaderboardIoEvent();
+        event.begin();
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            Telemetry.leaderboardIo(event, start, request.method(), request.uri().toString(), -1, 1, 0);
+            System.out.println("Request to " + request.uri() + " failed: " + e);
+            callback.onResponse(-1, null);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callback.onResponse(-1, null);
+            return;
+        }
+        Telemetry.leaderboardIo(event, start, request.method(), request.uri().toString(), response.statusCode(), 1,
+                response.body().length);
+        callback.onResponse(response.statusCode(), response.body());
+    }
+
+    private void send(HttpRequest request, Callback callback) {
+        int statusCode = -1;
+        long backoff = initialBackoffMillis;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long start = System.nanoTime();
+            GameEvents.LeaderboardIoEvent event = new GameEvents.LeaderboardIoEvent();
+            event.begin();
+            try {
+                statusCode = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                Telemetry.leaderboardIo(event, start, request.method(), request.uri().toString(), statusCode, attempt, 0);
+                if (statusCode >= 200 && statusCode < 300) {
+                    callback.onComplete(true, statusCode);
+                    return;
+                }
+                // Client errors will not go away by retrying
+                if (statusCode < 500 && statusCode != 429) {
+                    break;
+                }
+            } catch (IOException e) {
+                Telemetry.leaderboardIo(event, start, request.method(), request.uri().toString(), -1, attempt, 0);
+                System.out.println("Score submission attempt " + attempt + " failed: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            if (attempt < maxAttempts) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                backoff *= 2;
+            }
+        }
+        callback.onComplete(false, statusCode);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,293 @@
+package game;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Headless game core shared by Game and gametest. It has no AWT dependency and one call to
+// step() advances the game by exactly one fixed tick, so it can be driven by a Swing timer
+// or run as fast as the CPU allows for bots, replays and batch tests.
+//
+// Platforms never move in world space; the whole world scrolls down one pixel per tick, so a
+// platform's screen y is its world y plus the scroll offset. Because every platform scrolls by
+// the same amount and a platform leaving the bottom always respawns above all the others, the
+// slots stay in a ring ordered from the bottom of the screen to the top. Recycling just advances
+// the ring's head, and collision binary searches the ring for platforms near the player's feet,
+// so a tick costs O(log n) plus the platforms actually nearby, however many there are.
+// With more platforms than fit on one screen the spare ones wait above it (large-world mode).
+//
+// Every game is driven by one seeded Random, so the seed, the platform settings and the inputs
+// given to step() reproduce a game exactly; see Replay.
+public class Simulation {
+    public static final int TICK_MILLIS = 10;
+    public static final int WIDTH = 500;
+    public static final int HEIGHT = 500;
+    public static final int PLAYER_SIZE = 20;
+    public static final int PLATFORM_WIDTH = 100;
+    public static final int PLATFORM_HEIGHT = 10;
+    public static final int DEFAULT_PLATFORM_COUNT = 5;
+
+    // Input bits for step()
+    public static final int INPUT_NONE = 0;
+    public static final int INPUT_LEFT = 1;
+    public static final int INPUT_RIGHT = 2;
+
+    private static final int JUMP_VELOCITY = -15;
+    private static final int GRAVITY = 1;
+    private static final int MOVE_SPEED = 10;
+    private static final int SPAWN_RANGE = 400;
+
+    private final int platformCount;
+    private final int initialSpawnRange;
+    private final int spacing;
+    private final int[] platformX;
+    // World y; the screen y is platformWorldY[i] + scroll. Both wrap together on overflow, which
+    // keeps their sum exact.
+    private final int[] platformWorldY;
+    private final int[] platformIds;
+    // Whether the player has scored on the platform currently in each slot. The flag is cleared
+    // when the slot is recycled with a new id, so lookups stay O(1) and nothing grows over a session.
+    private final boolean[] platformHit;
+    private final Random random = new Random();
+    private long seed;
+    private int nextPlatformId = 0;
+    private int scroll = 0;
+    // Slot of the lowest platform; slots (head + k) % platformCount go up the screen with k
+    private int head = 0;
+    private int playerX, playerY, playerVelocityY = 0;
+    private int score = 0;
+    private boolean isGameOver = false;
+    // Whether the last bounceIfOnPlatform() found a platform under the player
+    private boolean bounced = false;
+    private long tick = 0;
+
+    public Simulation() {
+        this(DEFAULT_PLATFORM_COUNT, SPAWN_RANGE);
+    }
+
+    // initialSpawnRange is the x range of the platforms created at start; gametest uses a
+    // narrower one than Game.
+    public Simulation(int platformCount, int initialSpawnRange) {
+        this(platformCount, initialSpawnRange, newSeed());
+    }
+
+    public Simulation(int platformCount, int initialSpawnRange, long seed) {
+        if (platformCount < 1) {
+            throw new IllegalArgumentException("platformCount must be at least 1");
+        }
+        this.platformCount = platformCount;
+        this.initialSpawnRange = initialSpawnRange;
+        platformX = new int[platformCount];
+        spacing = Math.max(1, HEIGHT / platformCount);
+        platformWorldY = new int[platformCount];
+        platformIds = new int[platformCount];
+        platformHit = new boolean[platformCount];
+        reset(seed);
+    }
+
+    // Starts a new game with a fresh seed
+    public void reset() {
+        reset(newSeed());
+    }
+
+    // Starts a new game that plays out the same way every time for the same seed and inputs
+    public void reset(long seed) {
+        this.seed = seed;
+        random.setSeed(seed);
+        Arrays.fill(platformHit, false);
+        nextPlatformId = 0;
+        score = 0;
+        playerVelocityY = 0;
+        isGameOver = false;
+        bounced = false;
+        tick = 0;
+        scroll = 0;
+        head = 0;
+
+        platformX[0] = 200;
+        platformWorldY[0] = 400;
+        platformIds[0] = nextPlatformId++;
+        playerX = platformX[0] + PLATFORM_WIDTH / 2 - PLAYER_SIZE / 2;
+        playerY = platformWorldY[0] - PLAYER_SIZE;
+
+        for (int i = 1; i < platformCount; i++) {
+            platformX[i] = random.nextInt(initialSpawnRange);
+            platformWorldY[i] = 400 - i * spacing;
+            platformIds[i] = nextPlatformId++;
+        }
+    }
+
+    // Advances the game by one tick. Returns true only on the tick where the player fell off
+    // the screen, so callers can run their game-over handling exactly once.
+    public boolean step(int input) {
+        if (isGameOver) {
+            bounced = false;
+            return false;
+        }
+        tick++;
+
+        boolean fell = false;
+        playerY += playerVelocityY;
+        if (playerY > HEIGHT) {
+            isGameOver = true;
+            fell = true;
+        }
+
+        bounceIfOnPlatform();
+
+        if ((input & INPUT_LEFT) != 0 && playerX > 0) {
+            playerX -= MOVE_SPEED;
+        }
+        if ((input & INPUT_RIGHT) != 0 && playerX < WIDTH - PLAYER_SIZE) {
+            playerX += MOVE_SPEED;
+        }
+
+        scroll++;
+        while (platformWorldY[head] + scroll > HEIGHT) {
+            recycleLowest();
+        }
+        return fell;
+    }
+
+    // Moves the lowest platform to the top of the ring: just above the screen, or one spacing
+    // above the highest platform if that is already further up
+    private void recycleLowest() {
+        int i = head;
+        int highest = platformWorldY[(head + platformCount - 1) % platformCount] + scroll;
+        platformWorldY[i] = Math.min(-PLATFORM_HEIGHT, highest - spacing) - scroll;
+        platformX[i] = random.nextInt(SPAWN_RANGE);
+        platformIds[i] = nextPlatformId++;
+        platformHit[i] = false;
+        head = (head + 1) % platformCount;
+    }
+
+    // Screen y of the k-th platform counted from the bottom
+    private int screenY(int k) {
+        return platformWorldY[(head + k) % platformCount] + scroll;
+    }
+
+    // First ring position whose platform is at or above the given screen y
+    private int firstAtOrAbove(int y) {
+        int low = 0;
+        int high = platformCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (screenY(mid) > y) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public void bounceIfOnPlatform() {
+        boolean touchedPlatform = false;
+        int feet = playerY + PLAYER_SIZE;
+
+        // Only platforms whose top is between feet - PLATFORM_HEIGHT and feet can be touched
+        for (int k = firstAtOrAbove(feet); k < platformCount; k++) {
+            int i = (head + k) % platformCount;
+            int x = platformX[i];
+            int y = platformWorldY[i] + scroll;
+            if (y < feet - PLATFORM_HEIGHT) {
+                break;
+            }
+            if (playerX + PLAYER_SIZE > x && playerX < x + PLATFORM_WIDTH) {
+                touchedPlatform = true;
+                playerVelocityY = JUMP_VELOCITY;
+                if (!platformHit[i]) {
+                    score++;
+                    platformHit[i] = true;
+                }
+            }
+        }
+
+        if (!touchedPlatform) {
+            playerVelocityY += GRAVITY;
+        }
+        bounced = touchedPlatform;
+    }
+
+    // Copies the state needed for drawing into a reusable snapshot without allocating once the
+    // snapshot has grown to the number of platforms on screen. Only on-screen platforms are copied,
+    // bottom first.
+    public void copyTo(GameSnapshot snapshot) {
+        int visible = firstAtOrAbove(-PLATFORM_HEIGHT - 1);
+        snapshot.ensureCapacity(visible);
+        snapshot.playerX = playerX;
+        snapshot.playerY = playerY;
+        snapshot.score = score;
+        snapshot.isGameOver = isGameOver;
+        snapshot.tick = tick;
+        snapshot.platformCount = visible;
+        for (int k = 0; k < visible; k++) {
+            int i = (head + k) % platformCount;
+            snapshot.platformX[k] = platformX[i];
+            snapshot.platformY[k] = platformWorldY[i] + scroll;
+            snapshot.platformIds[k] = platformIds[i];
+            snapshot.platformHit[k] = platformHit[i];
+        }
+    }
+
+    private static long newSeed() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getInitialSpawnRange() {
+        return initialSpawnRange;
+    }
+
+    public int getPlayerX() {
+        return playerX;
+    }
+
+    public int getPlayerY() {
+        return playerY;
+    }
+
+    public int getPlayerVelocityY() {
+        return playerVelocityY;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public boolean isGameOver() {
+        return isGameOver;
+    }
+
+    // Whether the player bounced on a platform during the last step
+    public boolean hasBounced() {
+        return bounced;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int getPlatformCount() {
+        return platformCount;
+    }
+
+    public int getPlatformX(int i) {
+        return platformX[i];
+    }
+
+    public int getPlatformY(int i) {
+        return platformWorldY[i] + scroll;
+    }
+
+    public int getPlatformId(int i) {
+        return platformIds[i];
+    }
+
+    public boolean isPlatformHit(int i) {
+        return platformHit[i];
+    }
+}
@@ -0,0 +1,57 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+// Lock-free triple buffer between one writer (the tick thread) and one reader (the EDT or the
+// active render thread). The writer fills its back snapshot and publishes it by swapping it into
+// the ready slot; the reader swaps its front snapshot for the ready one only when a newer version
+// is waiting. Neither side blocks or allocates, and each snapshot is owned by exactly one party.
+// The reader also keeps a copy of the snapshot it had before the newest one, so it can
+// interpolate between the two.
+public class SnapshotBuffer {
+    private final AtomicReference<GameSnapshot> ready;
+    private GameSnapshot back;
+    private GameSnapshot front;
+    private final GameSnapshot previous;
+    private long nextVersion = 1;
+
+    public SnapshotBuffer(int platformCapacity) {
+        ready = new AtomicReference<>(new GameSnapshot(platformCapacity));
+        back = new GameSnapshot(platformCapacity);
+        front = new GameSnapshot(platformCapacity);
+        previous = new GameSnapshot(platformCapacity);
+    }
+
+    // Writer side: the snapshot to fill before calling publish()
+    public GameSnapshot writeBuffer() {
+        return back;
+    }
+
+    public void publish() {
+        back.version = nextVersion++;
+        back = ready.getAndSet(back);
+    }
+
+    // Reader side: the newest published snapshot. The returned object stays valid until the
+    // next call to latest() from the same thread.
+    public GameSnapshot latest() {
+        while (true) {
+            GameSnapshot candidate = ready.get();
+            if (candidate.version <= front.version) {
+                return front;
+            }
+            // Copied before the swap, after it the writer may already be refilling front
+            previous.copyFrom(front);
+            if (ready.compareAndSet(candidate, front)) {
+                front = candidate;
+                return front;
+            }
+        }
+    }
+
+    // Reader side: a copy of the snapshot latest() returned before the current one, empty until
+    // there has been one. Valid until the next call to latest().
+    public GameSnapshot previous() {
+        return previous;
+    }
+}
@@ -0,0 +1,66 @@
+package game;
+
+import java.time.Instant;
+
+// Startup milestones measured from the moment the JVM process started, printed when the game is
+// run with -Dgame.startupReport=true, e.g.
+//   startup: main at 212 ms
+//   startup: first frame at 540 ms
+//   startup: high scores loaded at 1130 ms
+// With -Dgame.exitAfterStartup=true the game exits once every milestone has been reached, which
+// is what the AppCDS training run in cds.sh relies on.
+public final class StartupTimer {
+    public static final String MAIN = "main";
+    public static final String FIRST_FRAME = "first frame";
+    public static final String SCORES_LOADED = "high scores loaded";
+
+    private static final boolean REPORT = Boolean.getBoolean("game.startupReport");
+    private static final boolean EXIT_AFTER_STARTUP = Boolean.getBoolean("game.exitAfterStartup");
+    private static final String[] MILESTONES = {MAIN, FIRST_FRAME, SCORES_LOADED};
+    private static final long[] reachedAt = new long[MILESTONES.length];
+    private static final long processStart = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
+
+    private StartupTimer() {
+    }
+
+    // Only the first call for each milestone counts
+    public static synchronized void mark(String milestone) {
+        int index = indexOf(milestone);
+        if (reachedAt[index] != 0) {
+            return;
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - processStart);
+        reachedAt[index] = elapsed;
+        if (REPORT) {
+            System.out.println("startup: " + milestone + " at " + elapsed + " ms");
+        }
+        if (EXIT_AFTER_STARTUP && allReached()) {
+            System.exit(0);
+        }
+    }
+
+    // Milliseconds from process start, or -1 if the milestone has not been reached yet
+    public static synchronized long millisTo(String milestone) {
+        long elapsed = reachedAt[indexOf(milestone)];
+        return elapsed == 0 ? -1 : elapsed;
+    }
+
+    private static int indexOf(String milestone) {
+        for (int i = 0; i < MILESTONES.length; i++) {
+            if (MILESTONES[i].equals(milestone)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown startup milestone " + milestone);
+    }
+
+    private static boolean allReached() {
+        for (long elapsed : reachedAt) {
+            if (elapsed == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,302 @@
+package game;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+// Process-wide timing numbers for the game: tick interval (jitter of the tick timer), update
+// time, paint time and leaderboard network latency, each in a LatencyHistogram, plus tick and
+// collision counters. The same numbers are shown in the F3 overlay and through the
+// game:type=Telemetry MXBean (JConsole, VisualVM), and ticks, collisions and leaderboard requests
+// are also emitted as GameEvents for Flight Recorder.
+public final class Telemetry {
+    public static final LatencyHistogram TICK_INTERVAL = new LatencyHistogram();
+    public static final LatencyHistogram UPDATE_TIME = new LatencyHistogram();
+    public static final LatencyHistogram PAINT_TIME = new LatencyHistogram();
+    public static final LatencyHistogram NETWORK_LATENCY = new LatencyHistogram();
+    private static final LongAdder ticks = new LongAdder();
+    private static final LongAdder collisions = new LongAdder();
+
+    private static final long OVERLAY_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static volatile boolean overlayVisible = false;
+    // Overlay text is rebuilt a few times a second rather than on every frame
+    private static final int OVERLAY_LINES = 5;
+    private static final CachedText overlay = new CachedText(230, 45, 265, OVERLAY_LINES * 14 + 8);
+    private static long overlayBuiltAt;
+    private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 170);
+    // Only touched by the single thread that runs the game's ticks
+    private static long lastTickStart = 0;
+    private static long lastTickInterval = 0;
+
+    private Telemetry() {
+    }
+
+    // Call first thing in a tick; returns the start time to pass to tickFinished
+    public static long tickStarted() {
+        long now = System.nanoTime();
+        if (lastTickStart != 0) {
+            lastTickInterval = now - lastTickStart;
+            TICK_INTERVAL.record(lastTickInterval);
+        }
+        lastTickStart = now;
+        return now;
+    }
+
+    // A begun TickEvent for the tick that is starting, or null while no recording enables them
+    public static GameEvents.TickEvent beginTickEvent() {
+        if (!GameEvents.TICK.isEnabled()) {
+            return null;
+        }
+        GameEvents.TickEvent event = new GameEvents.TickEvent();
+        event.begin();
+        return event;
+    }
+
+    // Call after every Simulation step of a tick; a wake-up can run several, and each can bounce
+    public static void stepFinished(Simulation simulation, int scoreBefore) {
+        if (simulation.hasBounced()) {
+            collisions.increment();
+            if (GameEvents.COLLISION.isEnabled()) {
+                GameEvents.CollisionEvent collision = new GameEvents.CollisionEvent();
+                if (collision.shouldCommit()) {
+                    collision.tick = simulation.getTick();
+                    collision.playerX = simulation.getPlayerX();
+                    collision.playerY = simulation.getPlayerY();
+                    collision.scored = simulation.getScore() > scoreBefore;
+                    collision.commit();
+                }
+            }
+        }
+    }
+
+    // Call when the tick's work is done, with the event from beginTickEvent()
+    public static void tickFinished(GameEvents.TickEvent event, long start, Simulation simulation) {
+        long end = System.nanoTime();
+        UPDATE_TIME.record(end - start);
+        ticks.increment();
+        if (event != null && event.shouldCommit()) {
+            event.tick = simulation.getTick();
+            event.interval = lastTickInterval;
+            event.platforms = simulation.getPlatformCount();
+            event.commit();
+        }
+    }
+
+    public static void paintFinished(long start) {
+        PAINT_TIME.record(System.nanoTime() - start);
+    }
+
+    // One leaderboard HTTP request; event was begun when the request started
+    public static void leaderboardIo(GameEvents.LeaderboardIoEvent event, long start, String method,
+                                     String url, int status, int attempt, long bytes) {
+        NETWORK_LATENCY.record(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.url = url;
+            event.status = status;
+            event.attempt = attempt;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    public static long getTicks() {
+        return ticks.sum();
+    }
+
+    public static long getCollisions() {
+        return collisions.sum();
+    }
+
+    public static void reset() {
+        TICK_INTERVAL.reset();
+        UPDATE_TIME.reset();
+        PAINT_TIME.reset();
+        NETWORK_LATENCY.reset();
+        ticks.reset();
+        collisions.reset();
+    }
+
+    public static void toggleOverlay() {
+        overlayVisible = !overlayVisible;
+    }
+
+    public static boolean isOverlayVisible() {
+        return overlayVisible;
+    }
+
+    // Draws the overlay in the top right corner if it is switched on
+    public static void drawOverlay(Graphics g) {
+        if (!overlayVisible) {
+            return;
+        }
+        synchronized (Telemetry.class) {
+            long now = System.nanoTime();
+            if (overlay.isStale(0) || now - overlayBuiltAt > OVERLAY_REFRESH_NANOS) {
+                overlay.clear(0);
+                overlay.addLine(g, "ticks " + getTicks() + "  bounces " + getCollisions(), 236, 60);
+                overlay.addLine(g, line("interval", TICK_INTERVAL), 236, 74);
+                overlay.addLine(g, line("update", UPDATE_TIME), 236, 88);
+                overlay.addLine(g, line("paint", PAINT_TIME), 236, 102);
+                overlay.addLine(g, line("network", NETWORK_LATENCY), 236, 116);
+                overlayBuiltAt = now;
+            }
+            g.setColor(OVERLAY_BACKGROUND);
+            g.fillRect(overlay.getX(), overlay.getY(), overlay.getWidth(), overlay.getHeight());
+            g.setColor(Color.YELLOW);
+            overlay.draw(g);
+        }
+    }
+
+    // Panels that only repaint what changed also repaint the overlay while it is shown
+    static void addOverlayTo(DirtyRegion region) {
+        if (overlayVisible) {
+            region.add(overlay);
+        }
+    }
+
+    private static String line(String name, LatencyHistogram histogram) {
+        return String.format("%-8s p50 %s p99 %s max %s", name, format(histogram.percentile(50)),
+                format(histogram.percentile(99)), format(histogram.max()));
+    }
+
+    private static String format(long nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format("%.1fms", nanos / 1e6);
+        }
+        return String.format("%.0fus", nanos / 1e3);
+    }
+
+    // Registered off the startup path, loading JMX takes a noticeable part of a second
+    public static void registerMBeanInBackground() {
+        Thread registrar = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new Stats(), new ObjectName("game:type=Telemetry"));
+            } catch (Exception e) {
+                System.out.println("Telemetry MBean not registered: " + e);
+            }
+        }, "telemetry-mbean");
+        registrar.setDaemon(true);
+        registrar.start();
+    }
+
+    public interface StatsMXBean {
+        LatencySummary getTickInterval();
+
+        LatencySummary getUpdateTime();
+
+        LatencySummary getPaintTime();
+
+        LatencySummary getNetworkLatency();
+
+        long getTicks();
+
+        long getCollisions();
+
+        boolean isOverlayVisible();
+
+        void setOverlayVisible(boolean visible);
+
+        void reset();
+    }
+
+    // Shown as a composite value in JMX clients; all times in microseconds
+    public static final class LatencySummary {
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        LatencySummary(LatencyHistogram histogram) {
+            count = histogram.count();
+            mean = histogram.mean() / 1e3;
+            p50 = histogram.percentile(50) / 1000;
+            p90 = histogram.percentile(90) / 1000;
+            p99 = histogram.percentile(99) / 1000;
+            p999 = histogram.percentile(99.9) / 1000;
+            max = histogram.max() / 1000;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMicros() {
+            return mean;
+        }
+
+        public long getP50Micros() {
+            return p50;
+        }
+
+        public long getP90Micros() {
+            return p90;
+        }
+
+        public long getP99Micros() {
+            return p99;
+        }
+
+        public long getP999Micros() {
+            return p999;
+        }
+
+        public long getMaxMicros() {
+            return max;
+        }
+    }
+
+    static final class Stats implements StatsMXBean {
+        @Override
+        public LatencySummary getTickInterval() {
+            return new LatencySummary(TICK_INTERVAL);
+        }
+
+        @Override
+        public LatencySummary getUpdateTime() {
+            return new LatencySummary(UPDATE_TIME);
+        }
+
+        @Override
+        public LatencySummary getPaintTime() {
+            return new LatencySummary(PAINT_TIME);
+        }
+
+        @Override
+        public LatencySummary getNetworkLatency() {
+            return new LatencySummary(NETWORK_LATENCY);
+        }
+
+        @Override
+        public long getTicks() {
+            return Telemetry.getTicks();
+        }
+
+        @Override
+        public long getCollisions() {
+            return Telemetry.getCollisions();
+        }
+
+        @Override
+        public boolean isOverlayVisible() {
+            return overlayVisible;
+        }
+
+        @Override
+        public void setOverlayVisible(boolean visible) {
+            overlayVisible = visible;
+        }
+
+        @Override
+        public void reset() {
+            Telemetry.reset();
+        }
+    }
+}
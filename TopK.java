@@ -0,0 +1,106 @@
+package game;
+
+import java.util.ArrayList;
+
+// Bounded best-K table keyed on an int score, highest first. Scores and values live in parallel
+// arrays kept sorted by binary insertion, so an offer costs O(log K) comparisons plus one
+// arraycopy, checking whether a score would make the table is O(1), and once the table is full
+// the lowest entry falls off. Ties keep insertion order, like appending and stable sorting did.
+// Not thread-safe.
+public class TopK<T> {
+    private final int[] scores;
+    private final Object[] values;
+    private int size = 0;
+
+    public TopK(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        scores = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    public int capacity() {
+        return scores.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Whether offer(score, ...) would be accepted
+    public boolean qualifies(int score) {
+        return size < scores.length || score > scores[size - 1];
+    }
+
+    // Returns false if the score did not make the table
+    public boolean offer(int score, T value) {
+        if (!qualifies(score)) {
+            return false;
+        }
+        int index = insertionPoint(score);
+        int moved = Math.min(size, scores.length - 1) - index;
+        if (moved > 0) {
+            System.arraycopy(scores, index, scores, index + 1, moved);
+            System.arraycopy(values, index, values, index + 1, moved);
+        }
+        scores[index] = score;
+        values[index] = value;
+        if (size < scores.length) {
+            size++;
+        }
+        return true;
+    }
+
+    // Rank 0 is the highest score
+    public int scoreAt(int rank) {
+        checkRank(rank);
+        return scores[rank];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T valueAt(int rank) {
+        checkRank(rank);
+        return (T) values[rank];
+    }
+
+    public ArrayList<T> toList() {
+        ArrayList<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(valueAt(i));
+        }
+        return list;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    // First position whose score is lower than the given one, so equal scores stay in front
+    private int insertionPoint(int score) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (scores[mid] >= score) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void checkRank(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("rank " + rank + ", size " + size);
+        }
+    }
+}
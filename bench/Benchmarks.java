@@ -0,0 +1,544 @@
+package game;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Micro benchmarks for the tick, collision, render and leaderboard parsing hot paths.
+// The tree has no build tool to pull JMH in, so this is a small self-contained harness in the
+// same spirit: warmup iterations, measured iterations, results folded into a volatile sink,
+// and per-thread allocation plus GC counters standing in for JMH's GC profiler.
+//
+// Usage: java -Djava.awt.headless=true -cp <classes> game.Benchmarks [name-filter]
+public class Benchmarks {
+    interface Op {
+        // Returns something derived from the work so the JIT cannot drop it
+        long run() throws Exception;
+    }
+
+    private static final int[] PLATFORM_COUNTS = {5, 50, 500, 5_000, 100_000};
+    private static final int[] LEADERBOARD_SIZES = {5, 100, 10_000};
+    private static final int[] WIRE_SIZES = {1_000, 100_000};
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 5;
+    private static final int REPLAY_BATCH = 256;
+    private static final long ITERATION_NANOS = 200_000_000L;
+
+    static volatile long sink;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        String filter = args.length > 0 ? args[0] : "";
+        System.out.printf("%-28s %-16s %14s %12s %10s %6s %8s%n",
+                "benchmark", "param", "ns/op", "B/op", "MB/s", "gc", "gc ms");
+
+        for (int platforms : PLATFORM_COUNTS) {
+            Simulation sim = new Simulation(platforms, 400);
+            run(filter, "tick", "platforms=" + platforms, () -> {
+                if (sim.step(Simulation.INPUT_NONE)) {
+                    sim.reset();
+                }
+                return sim.getPlayerY();
+            });
+        }
+
+        for (int platforms : PLATFORM_COUNTS) {
+            LegacyTick legacy = new LegacyTick(platforms);
+            run(filter, "legacy.tick", "platforms=" + platforms, () -> {
+                if (legacy.step()) {
+                    legacy.reset();
+                }
+                return legacy.playerY;
+            });
+        }
+
+        for (int platforms : PLATFORM_COUNTS) {
+            Simulation sim = new Simulation(platforms, 400);
+            run(filter, "bounceIfOnPlatform", "platforms=" + platforms, () -> {
+                sim.bounceIfOnPlatform();
+                return sim.getPlayerVelocityY();
+            });
+        }
+
+        for (int platforms : PLATFORM_COUNTS) {
+            Game game = new Game(new Simulation(platforms, 400), false);
+            game.setSize(Simulation.WIDTH, Simulation.HEIGHT);
+            BufferedImage image = new BufferedImage(Simulation.WIDTH, Simulation.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            run(filter, "paintComponent", "platforms=" + platforms, () -> {
+                game.paintComponent(g);
+                return image.getRGB(250, 250);
+            });
+            g.dispose();
+        }
+
+        for (int platforms : PLATFORM_COUNTS) {
+            Simulation sim = new Simulation(platforms, 400);
+            GameSnapshot snapshot = new GameSnapshot(platforms);
+            sim.copyTo(snapshot);
+            BufferedImage image = new BufferedImage(Simulation.WIDTH, Simulation.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            run(filter, "legacy.paintComponent", "platforms=" + platforms, () -> {
+                legacyRender(g, snapshot);
+                return image.getRGB(250, 250);
+            });
+            g.dispose();
+        }
+
+        // A tick in which the player only bounces repaints its old and new position
+        {
+            Game game = new Game(new Simulation(50, 400), false);
+            game.setSize(Simulation.WIDTH, Simulation.HEIGHT);
+            BufferedImage image = new BufferedImage(Simulation.WIDTH, Simulation.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.setClip(200, 360, Simulation.PLAYER_SIZE, Simulation.PLAYER_SIZE + 15);
+            run(filter, "paintComponent.dirty", "clip=20x35", () -> {
+                game.paintComponent(g);
+                return image.getRGB(205, 365);
+            });
+            g.dispose();
+        }
+
+        {
+            Simulation sim = new Simulation(50, 400);
+            while (!sim.step(Simulation.INPUT_LEFT)) {
+                // Falls off to the left sooner or later
+            }
+            Game game = new Game(sim, false);
+            game.parseHighScores(new ByteArrayInputStream(jsonBinPayload(5).getBytes(StandardCharsets.UTF_8)));
+            game.setSize(Simulation.WIDTH, Simulation.HEIGHT);
+            BufferedImage image = new BufferedImage(Simulation.WIDTH, Simulation.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            run(filter, "paintComponent.gameOver", "scores=5", () -> {
+                game.paintComponent(g);
+                return image.getRGB(250, 250);
+            });
+            g.dispose();
+        }
+
+        for (int size : LEADERBOARD_SIZES) {
+            Game game = new Game(new Simulation(), size, false);
+            game.parseHighScores(new ByteArrayInputStream(jsonBinPayload(size).getBytes(StandardCharsets.UTF_8)));
+            run(filter, "buildHighScoreJson", "entries=" + size, () -> game.buildHighScoreJson().length());
+        }
+
+        for (int size : LEADERBOARD_SIZES) {
+            ArrayList<ScoreEntry> scores = new ArrayList<>();
+            String payload = jsonBinPayload(size);
+            run(filter, "legacy.buildHighScoreJson", "entries=" + size, () -> {
+                if (scores.isEmpty()) {
+                    scores.addAll(legacyParseHighScores(payload));
+                }
+                return legacyBuildHighScoreJson(scores).length();
+            });
+        }
+
+        for (int size : LEADERBOARD_SIZES) {
+            Game game = new Game(new Simulation(), size, false);
+            byte[] payload = jsonBinPayload(size).getBytes(StandardCharsets.UTF_8);
+            run(filter, "Game.parseHighScores", "entries=" + size, () -> {
+                game.parseHighScores(new ByteArrayInputStream(payload));
+                return payload.length;
+            });
+        }
+
+        // The old code first read the whole response into a String, so that is part of its cost
+        for (int size : LEADERBOARD_SIZES) {
+            byte[] payload = jsonBinPayload(size).getBytes(StandardCharsets.UTF_8);
+            run(filter, "legacy.Game.parseHighScores", "entries=" + size,
+                () -> legacyParseHighScores(new String(payload, StandardCharsets.UTF_8)).size());
+        }
+
+        // Steady state of a full board: every offer either falls off or displaces the lowest entry
+        for (int size : LEADERBOARD_SIZES) {
+            TopK<ScoreEntry> top = new TopK<>(size);
+            ScoreEntry entry = new ScoreEntry("player", 0);
+            Random random = new Random(42);
+            run(filter, "TopK.offer", "k=" + size, () -> {
+                int score = random.nextInt(1_000_000);
+                return top.offer(score, entry) ? 1 : 0;
+            });
+        }
+
+        // What updateHighScores and saveLocalScore used to do for every new score
+        for (int size : LEADERBOARD_SIZES) {
+            ArrayList<ScoreEntry> list = new ArrayList<>();
+            Random random = new Random(42);
+            run(filter, "legacy.sortedList.offer", "k=" + size, () -> {
+                list.add(new ScoreEntry("player", random.nextInt(1_000_000)));
+                list.sort((a, b) -> Integer.compare(b.score, a.score));
+                if (list.size() > size) {
+                    list.remove(list.size() - 1);
+                }
+                return list.size();
+            });
+        }
+
+        for (int size : LEADERBOARD_SIZES) {
+            byte[] payload = leaderboardPayload(size).getBytes(StandardCharsets.UTF_8);
+            ArrayList<LeaderboardEntry> scores = new ArrayList<>();
+            run(filter, "LeaderboardManager.parse", "entries=" + size, () -> {
+                scores.clear();
+                LeaderboardManager.parseTopScores(new ByteArrayInputStream(payload), scores);
+                return scores.size();
+            });
+        }
+
+        for (int size : LEADERBOARD_SIZES) {
+            byte[] payload = leaderboardPayload(size).getBytes(StandardCharsets.UTF_8);
+            run(filter, "legacy.LeaderboardManager.parse", "entries=" + size,
+                () -> legacyParseTopScores(new String(payload, StandardCharsets.UTF_8)).size());
+        }
+
+        // Leaderboard wire formats: payload size and client decode time, JSON against ScoreBinary,
+        // each with and without gzip
+        for (int size : WIRE_SIZES) {
+            byte[] json = leaderboardPayload(size).getBytes(StandardCharsets.UTF_8);
+            byte[] binary = binaryLeaderboardPayload(size);
+            byte[] jsonGzip = gzip(json);
+            byte[] binaryGzip = gzip(binary);
+            if (filter.isEmpty() || filter.startsWith("wire")) {
+                System.out.printf("wire payload entries=%d: json %d B, json+gzip %d B, binary %d B, binary+gzip %d B%n",
+                        size, json.length, jsonGzip.length, binary.length, binaryGzip.length);
+            }
+            ArrayList<LeaderboardEntry> scores = new ArrayList<>();
+            run(filter, "wire.json.decode", "entries=" + size, () -> {
+                scores.clear();
+                LeaderboardManager.parseTopScores(new ByteArrayInputStream(json), "application/json", scores);
+                return scores.size();
+            });
+            run(filter, "wire.json+gzip.decode", "entries=" + size, () -> {
+                scores.clear();
+                LeaderboardManager.parseTopScores(new GZIPInputStream(new ByteArrayInputStream(jsonGzip)),
+                        "application/json", scores);
+                return scores.size();
+            });
+            run(filter, "wire.binary.decode", "entries=" + size, () -> {
+                scores.clear();
+                LeaderboardManager.parseTopScores(new ByteArrayInputStream(binary), ScoreBinary.CONTENT_TYPE, scores);
+                return scores.size();
+            });
+            run(filter, "wire.binary+gzip.decode", "entries=" + size, () -> {
+                scores.clear();
+                LeaderboardManager.parseTopScores(new GZIPInputStream(new ByteArrayInputStream(binaryGzip)),
+                        ScoreBinary.CONTENT_TYPE, scores);
+                return scores.size();
+            });
+        }
+
+        // Verification cost grows with the length of the game, so it is reported per replay of a
+        // known length; a five minute game is 30 000 ticks
+        List<Replay> replays = new ArrayList<>();
+        int[] claimed = new int[REPLAY_BATCH];
+        long replayTicks = 0;
+        for (int i = 0; i < REPLAY_BATCH; i++) {
+            Replay replay = recordBotGame(i);
+            replays.add(replay);
+            claimed[i] = replay.simulate();
+            replayTicks += replay.getTicks();
+        }
+        Replay single = replays.get(0);
+        run(filter, "Replay.simulate", "ticks=" + single.getTicks(), single::simulate);
+        ReplayVerifier verifier = new ReplayVerifier();
+        run(filter, "ReplayVerifier.verifyAll", "ticks=" + replayTicks, () -> verifier.verifyAll(replays, claimed).length);
+    }
+
+    // A game played by a simple bot that steers towards the nearest platform below its feet
+    static Replay recordBotGame(long seed) {
+        Simulation sim = new Simulation(Replay.PLATFORM_COUNT, Replay.SPAWN_RANGE, seed);
+        Replay.Recorder recorder = new Replay.Recorder(sim);
+        int input;
+        do {
+            int feet = sim.getPlayerY() + Simulation.PLAYER_SIZE;
+            int target = -1;
+            for (int i = 0; i < sim.getPlatformCount(); i++) {
+                if (sim.getPlatformY(i) >= feet && (target < 0 || sim.getPlatformY(i) < sim.getPlatformY(target))) {
+                    target = i;
+                }
+            }
+            input = Simulation.INPUT_NONE;
+            if (target >= 0) {
+                int center = sim.getPlatformX(target) + (Simulation.PLATFORM_WIDTH - Simulation.PLAYER_SIZE) / 2;
+                input = sim.getPlayerX() < center - 5 ? Simulation.INPUT_RIGHT
+                        : sim.getPlayerX() > center + 5 ? Simulation.INPUT_LEFT : Simulation.INPUT_NONE;
+            }
+        } while (!recorder.step(input));
+        return recorder.finish();
+    }
+
+    // The tick as it was before the platform ring: every platform is moved and collision-tested
+    // on every tick. Same rules and spawn pattern as Simulation, kept as a baseline.
+    static final class LegacyTick {
+        final int count;
+        final int[] x;
+        final int[] y;
+        final boolean[] hit;
+        final Random random = new Random(1);
+        int playerX, playerY, velocityY;
+
+        LegacyTick(int count) {
+            this.count = count;
+            x = new int[count];
+            y = new int[count];
+            hit = new boolean[count];
+            reset();
+        }
+
+        void reset() {
+            int spacing = Math.max(1, Simulation.HEIGHT / count);
+            for (int i = 0; i < count; i++) {
+                x[i] = i == 0 ? 200 : random.nextInt(400);
+                y[i] = 400 - i * spacing;
+                hit[i] = false;
+            }
+            playerX = 200 + Simulation.PLATFORM_WIDTH / 2 - Simulation.PLAYER_SIZE / 2;
+            playerY = 400 - Simulation.PLAYER_SIZE;
+            velocityY = 0;
+        }
+
+        boolean step() {
+            playerY += velocityY;
+            boolean touched = false;
+            int feet = playerY + Simulation.PLAYER_SIZE;
+            for (int i = 0; i < count; i++) {
+                if (feet >= y[i] && feet <= y[i] + Simulation.PLATFORM_HEIGHT
+                        && playerX + Simulation.PLAYER_SIZE > x[i] && playerX < x[i] + Simulation.PLATFORM_WIDTH) {
+                    touched = true;
+                    velocityY = -15;
+                    hit[i] = true;
+                }
+            }
+            if (!touched) {
+                velocityY += 1;
+            }
+            for (int i = 0; i < count; i++) {
+                y[i] += 1;
+                if (y[i] > Simulation.HEIGHT) {
+                    y[i] = -Simulation.PLATFORM_HEIGHT;
+                    x[i] = random.nextInt(400);
+                    hit[i] = false;
+                }
+            }
+            return playerY > Simulation.HEIGHT;
+        }
+    }
+
+    // Game.render as it was before the cached text and dirty regions: the panel background, then
+    // the whole frame, with the text concatenated and laid out again on every paint
+    static void legacyRender(Graphics2D g, GameSnapshot snapshot) {
+        g.setColor(Color.LIGHT_GRAY);
+        g.fillRect(0, 0, Simulation.WIDTH, Simulation.HEIGHT);
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, 500, 500);
+        g.setColor(Color.RED);
+        g.fillRect(snapshot.getPlayerX(), snapshot.getPlayerY(), Simulation.PLAYER_SIZE, Simulation.PLAYER_SIZE);
+        for (int i = 0; i < snapshot.getPlatformCount(); i++) {
+            g.setColor(snapshot.isPlatformHit(i) ? Color.GRAY : Color.GREEN);
+            g.fillRect(snapshot.getPlatformX(i), snapshot.getPlatformY(i),
+                       Simulation.PLATFORM_WIDTH, Simulation.PLATFORM_HEIGHT);
+        }
+        g.setColor(Color.WHITE);
+        g.drawString("Height: " + snapshot.getScore(), 10, 20);
+    }
+
+    // The string slicing parsers and builder that ScoreJson replaced, kept as a baseline
+    static ArrayList<ScoreEntry> legacyParseHighScores(String responseBody) {
+        ArrayList<ScoreEntry> scores = new ArrayList<>();
+        int index = responseBody.indexOf("[");
+        int endIndex = responseBody.indexOf("]");
+        if (index != -1 && endIndex != -1) {
+            String arrayContent = responseBody.substring(index + 1, endIndex);
+            String[] entries = arrayContent.split("\\},\\{");
+
+            for (String entry : entries) {
+                entry = entry.replace("{", "").replace("}", "").replace("\"", "");
+                String[] parts = entry.split(",");
+                String name = "";
+                int score = 0;
+                for (String part : parts) {
+                    String[] keyValue = part.split(":");
+                    if (keyValue[0].trim().equals("name")) {
+                        name = keyValue[1];
+                    } else if (keyValue[0].trim().equals("score")) {
+                        score = Integer.parseInt(keyValue[1].trim());
+                    }
+                }
+                scores.add(new ScoreEntry(name, score));
+            }
+        }
+        return scores;
+    }
+
+    static String legacyBuildHighScoreJson(ArrayList<ScoreEntry> highScores) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{ \"record\": [");
+        for (int i = 0; i < highScores.size(); i++) {
+            ScoreEntry entry = highScores.get(i);
+            sb.append("{\"name\":\"").append(entry.name)
+              .append("\",\"score\":").append(entry.score).append("}");
+            if (i < highScores.size() - 1) {
+                sb.append(",");
+            }
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    static ArrayList<LeaderboardEntry> legacyParseTopScores(String jsonResp) {
+        ArrayList<LeaderboardEntry> scores = new ArrayList<>();
+        if (jsonResp.contains("[") && jsonResp.contains("]")) {
+            String[] entries = jsonResp.substring(jsonResp.indexOf("[") + 1, jsonResp.lastIndexOf("]")).split("},");
+            for (String entry : entries) {
+                if (entry.contains("playerName") && entry.contains("score")) {
+                    String name = entry.substring(entry.indexOf("playerName") + 13);
+                    name = name.substring(0, name.indexOf("\""));
+                    String scoreStr = entry.substring(entry.indexOf("score") + 7);
+                    if (scoreStr.contains("}")) {
+                        scoreStr = scoreStr.substring(0, scoreStr.indexOf("}"));
+                    }
+                    scores.add(new LeaderboardEntry(name, Integer.parseInt(scoreStr.trim())));
+                }
+            }
+        }
+        return scores;
+    }
+
+    // Response shape of jsonbin.io's /latest endpoint as read by Game
+    static String jsonBinPayload(int entries) {
+        StringBuilder sb = new StringBuilder("{\"record\":[");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":\"player").append(i).append("\",\"score\":").append(entries - i).append('}');
+        }
+        sb.append("],\"metadata\":{\"id\":\"67f7ac438960c979a58236c7\",\"private\":true}}");
+        return sb.toString();
+    }
+
+    // Response shape of the leaderboard server's top list as read by LeaderboardManager
+    static String leaderboardPayload(int entries) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"playerName\":\"player").append(i).append("\",\"score\":").append(entries - i).append('}');
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    // The same entries as leaderboardPayload in the binary form
+    static byte[] binaryLeaderboardPayload(int entries) {
+        ScoreBinary.Encoder encoder = new ScoreBinary.Encoder(entries);
+        for (int i = 0; i < entries; i++) {
+            encoder.add("player" + i, entries - i);
+        }
+        return encoder.toByteArray();
+    }
+
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    static void run(String filter, String name, String param, Op op) {
+        if (!name.contains(filter)) {
+            return;
+        }
+
+        // Grow the batch until one batch takes about a millisecond, so clock reads stay out of the numbers
+        int batch = 1;
+        while (true) {
+            long start = System.nanoTime();
+            runBatch(op, batch);
+            if (System.nanoTime() - start > 1_000_000L || batch >= 1 << 24) {
+                break;
+            }
+            batch <<= 1;
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(op, batch);
+        }
+
+        double nsPerOp = 0, bytesPerOp = 0, mbPerSec = 0;
+        long gcCount = 0, gcMillis = 0;
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long gcCountBefore = gcCount(), gcMillisBefore = gcMillis();
+            double[] result = iteration(op, batch);
+            nsPerOp += result[0] / MEASURE_ITERATIONS;
+            bytesPerOp += result[1] / MEASURE_ITERATIONS;
+            mbPerSec += result[2] / MEASURE_ITERATIONS;
+            gcCount += gcCount() - gcCountBefore;
+            gcMillis += gcMillis() - gcMillisBefore;
+        }
+        System.out.printf("%-28s %-16s %14.1f %12.1f %10.1f %6d %8d%n",
+                name, param, nsPerOp, bytesPerOp, mbPerSec, gcCount, gcMillis);
+    }
+
+    // Returns {ns/op, bytes/op, allocated MB/s}
+    private static double[] iteration(Op op, int batch) {
+        long thread = Thread.currentThread().getId();
+        long ops = 0;
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            runBatch(op, batch);
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_NANOS);
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+        return new double[] {
+            (double) elapsed / ops,
+            (double) allocated / ops,
+            allocated / 1e6 / (elapsed / 1e9)
+        };
+    }
+
+    private static void runBatch(Op op, int batch) {
+        long acc = 0;
+        try {
+            for (int i = 0; i < batch; i++) {
+                acc += op.run();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Benchmark operation failed", e);
+        }
+        sink = acc;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,25 @@
+#!/bin/sh
+# Starts the game from an AppCDS archive so the JVM maps already parsed and verified classes
+# instead of loading them from scratch. The first run compiles the game and makes a training
+# run that exits by itself once the first frame is drawn and the high scores have loaded
+# (-Dgame.exitAfterStartup); the JVM then writes every class it loaded to the archive.
+# Later runs only start the game with the archive and print the startup timing report.
+# CDS only archives classes loaded from jar files, so the classes are packaged into game.jar.
+#
+# Usage: ./cds.sh [main-class]        default game.Game, e.g. ./cds.sh game.gametest
+# Delete the archive (game.jsa) after changing the code so it is rebuilt with the new classes.
+set -e
+cd "$(dirname "$0")"
+MAIN=${1:-game.Game}
+CLASSES=${CLASSES:-out}
+JAR=${JAR:-game.jar}
+ARCHIVE=${ARCHIVE:-game.jsa}
+
+if [ ! -f "$ARCHIVE" ]; then
+    mkdir -p "$CLASSES"
+    javac -encoding UTF-8 -d "$CLASSES" *.java
+    jar cf "$JAR" -C "$CLASSES" .
+    java -XX:ArchiveClassesAtExit="$ARCHIVE" -Dgame.exitAfterStartup=true -Dgame.startupReport=true \
+        -cp "$JAR" "$MAIN"
+fi
+exec java -XX:SharedArchiveFile="$ARCHIVE" -Dgame.startupReport=true -cp "$JAR" "$MAIN"
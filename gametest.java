@@ -3,15 +3,25 @@ package game;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 import java.io.*;
-import java.net.*;
-import java.util.Collections;
-import java.util.Comparator;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
 
 // Klass för att representera ett leaderboard-inlägg
-class LeaderboardEntry implements Serializable {
+class LeaderboardEntry {
     private String playerName;
     private int score;
     
@@ -32,153 +42,484 @@ class LeaderboardEntry implements Serializable {
     public String toString() {
         return playerName + ": " + score;
     }
+    
+    // Samma namn och poäng räknas som samma inlägg när listan uppdateras
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LeaderboardEntry && ((LeaderboardEntry) other).score == score
+                && ((LeaderboardEntry) other).playerName.equals(playerName);
+    }
+    
+    @Override
+    public int hashCode() {
+        return playerName.hashCode() * 31 + score;
+    }
 }
 
 // Klass för att hantera leaderboard-funktionalitet
 class LeaderboardManager {
     private static final String SERVER_URL = "http://localhost:8080/leaderboard"; // Ändra till din server URL
     
-    // Skicka poäng till servern
-    public static boolean submitScore(String playerName, int score) {
-        try {
-            URL url = new URL(SERVER_URL + "/submit");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setDoOutput(true);
-            
-            // Skapa JSON-data
-            String jsonData = "{\"playerName\":\"" + playerName + "\",\"score\":" + score + "}";
-            
-            // Skicka data
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = jsonData.getBytes("utf-8");
-                os.write(input, 0, input.length);
-            }
-            
-            // Kontrollera svar
-            int responseCode = conn.getResponseCode();
-            return responseCode == 200;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+    // Skicka poäng till servern i bakgrunden. Returnerar direkt; callback anropas från en
+    // arbetstråd när servern har svarat eller alla försök har misslyckats.
+    // Returnerar false om kön är full, då anropas aldrig callback.
+    public static boolean submitScore(String playerName, int score, ScoreSubmitter.Callback callback) {
+        HttpRequest request;
+        if (serverSpeaksBinary) {
+            byte[] binaryData = new ScoreBinary.Encoder(1).add(playerName, score).toByteArray();
+            request = ScoreSubmitter.newRequest(SERVER_URL + "/submit")
+                    .header("Content-Type", ScoreBinary.CONTENT_TYPE)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(binaryData))
+                    .build();
+        } else {
+            // Skapa JSON-data, namnet escapas
+            String jsonData = ScoreJson.appendEntry(new StringBuilder(), "playerName", playerName, score).toString();
+            request = ScoreSubmitter.newRequest(SERVER_URL + "/submit")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(jsonData, StandardCharsets.UTF_8))
+                    .build();
         }
+        return submit(request, callback);
+    }
+    
+    // Skickar poängen tillsammans med reprisen av rundan, servern spelar upp den och sparar bara
+    // poängen om reprisen slutar på just den poängen
+    public static boolean submitScore(String playerName, int score, Replay replay, ScoreSubmitter.Callback callback) {
+        String query = "?playerName=" + URLEncoder.encode(playerName, StandardCharsets.UTF_8) + "&score=" + score;
+        HttpRequest request = ScoreSubmitter.newRequest(SERVER_URL + "/replay" + query)
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(replay.toBytes()))
+                .build();
+        return submit(request, callback);
+    }
+    
+    private static boolean submit(HttpRequest request, ScoreSubmitter.Callback callback) {
+        // Nästa hämtning måste fråga servern så att den nya poängen syns direkt
+        return ScoreSubmitter.shared().submit(request, (success, responseCode) -> {
+            if (success) {
+                for (CachedResource<ArrayList<LeaderboardEntry>> cache : topScoresCaches.values()) {
+                    cache.invalidate();
+                }
+            }
+            callback.onComplete(success, responseCode);
+        });
+    }
+    
+    // Lika många som servern skickar i strömmen
+    static final int TOP_COUNT = 10;
+    // Sätts när servern har svarat binärt på en topplista; innan dess skickas poäng som JSON, så
+    // att äldre servrar som bara förstår JSON fortsätter att fungera
+    private static volatile boolean serverSpeaksBinary = false;
+    // Hur länge en hämtad topplista visas utan att fråga servern igen
+    private static final long TOP_SCORES_TTL_SECONDS = 10;
+    
+    // Tidsfönster för topplistan, värdet på ?window= hos servern
+    public static final String WINDOW_ALL = "all";
+    public static final String WINDOW_WEEKLY = "weekly";
+    public static final String WINDOW_DAILY = "daily";
+    
+    // En cache per fönster: inom TTL hämtas listan inte alls, efter TTL visas den gamla listan
+    // medan en ny hämtas i bakgrunden, och oförändrade listor kostar bara ett 304-svar tack vare ETag.
+    // Listan begärs helst binärt (se ScoreBinary), annars som JSON.
+    private static final ConcurrentHashMap<String, CachedResource<ArrayList<LeaderboardEntry>>> topScoresCaches =
+            new ConcurrentHashMap<>();
+    
+    private static CachedResource<ArrayList<LeaderboardEntry>> topScoresCache(String window) {
+        return topScoresCaches.computeIfAbsent(window, w -> new CachedResource<>(SERVER_URL + "/top" + windowQuery(w),
+                Map.of("Accept", ScoreBinary.ACCEPT), TOP_SCORES_TTL_SECONDS, TimeUnit.SECONDS, (in, contentType) -> {
+                    ArrayList<LeaderboardEntry> scores = new ArrayList<>();
+                    parseTopScores(in, contentType, scores);
+                    if (ScoreBinary.isBinary(contentType)) {
+                        serverSpeaksBinary = true;
+                    }
+                    return scores;
+                }));
+    }
+    
+    // Utan parameter för all tid, så att servrar utan fönster fortfarande förstår frågan
+    private static String windowQuery(String window) {
+        return window.equals(WINDOW_ALL) ? "" : "?window=" + window;
+    }
+    
+    // Träffar, missar och 304-svar för topplistan
+    static CachedResource<ArrayList<LeaderboardEntry>> topScoresCache() {
+        return topScoresCache(WINDOW_ALL);
+    }
+    
+    // Följer topplistan för window som server-sent events; listener anropas på EDT med varje ny
+    // lista tills strömmen stängs
+    public static LeaderboardFeed<ArrayList<LeaderboardEntry>> openTopScoresFeed(String window,
+            Consumer<ArrayList<LeaderboardEntry>> listener) {
+        String url = SERVER_URL + "/stream" + windowQuery(window);
+        return new LeaderboardFeed<ArrayList<LeaderboardEntry>>(url, (in, contentType) -> {
+            ArrayList<LeaderboardEntry> scores = new ArrayList<>();
+            parseTopScores(in, contentType, scores);
+            return scores;
+        }, listener).start();
     }
     
-    // Hämta top 10 från servern
+    // Hämta top 10 för all tid från servern
     public static ArrayList<LeaderboardEntry> getTopScores() {
+        return getTopScores(WINDOW_ALL);
+    }
+    
+    // Hämta top 10 för ett tidsfönster från servern
+    public static ArrayList<LeaderboardEntry> getTopScores(String window) {
         ArrayList<LeaderboardEntry> scores = new ArrayList<>();
+        // De lokala poängen har ingen tid, så de kan bara ersätta listan för all tid
+        boolean localFallback = window.equals(WINDOW_ALL);
         
         try {
-            URL url = new URL(SERVER_URL + "/top");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            
-            // Läs svar
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(conn.getInputStream()))) {
-                String line;
-                StringBuilder response = new StringBuilder();
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                
-                // Enkel parsning av JSON-svar (i en riktig implementation bör du använda ett JSON-bibliotek)
-                String jsonResp = response.toString();
-                // Denna parsing är mycket grundläggande och skulle ersättas med ett JSON-bibliotek
-                if (jsonResp.contains("[") && jsonResp.contains("]")) {
-                    String[] entries = jsonResp.substring(jsonResp.indexOf("[") + 1, jsonResp.lastIndexOf("]")).split("},");
-                    for (String entry : entries) {
-                        if (entry.contains("playerName") && entry.contains("score")) {
-                            String name = entry.substring(entry.indexOf("playerName") + 13);
-                            name = name.substring(0, name.indexOf("\""));
-                            
-                            String scoreStr = entry.substring(entry.indexOf("score") + 7);
-                            if (scoreStr.contains("}")) {
-                                scoreStr = scoreStr.substring(0, scoreStr.indexOf("}"));
-                            }
-                            int score = Integer.parseInt(scoreStr.trim());
-                            
-                            scores.add(new LeaderboardEntry(name, score));
-                        }
-                    }
-                }
-            }
+            // Listan i cachen delas, så den kopieras i stället för att ändras
+            scores.addAll(topScoresCache(window).get());
         } catch (Exception e) {
             e.printStackTrace();
             // Om något går fel, lägg till dummy-data
-            loadLocalScores(scores);
+            if (localFallback) {
+                loadLocalScores(scores);
+            }
         }
         
-        if (scores.isEmpty()) {
+        if (scores.isEmpty() && localFallback) {
             loadLocalScores(scores);
         }
         
-        // Sortera efter poäng (högst först)
-        Collections.sort(scores, Comparator.comparing(LeaderboardEntry::getScore).reversed());
-        return scores;
+        // Behåll de 10 bästa, högst först, utan att sortera hela listan
+        TopK<LeaderboardEntry> top = new TopK<>(TOP_COUNT);
+        for (LeaderboardEntry entry : scores) {
+            top.offer(entry.getScore(), entry);
+        }
+        return top.toList();
+    }
+    
+    // En sida av topplistan: poängen från plats offset + 1 och hur många poäng hela listan har
+    static final class TopScoresPage {
+        final int offset;
+        final int total;
+        final ArrayList<LeaderboardEntry> scores;
+        
+        TopScoresPage(int offset, int total, ArrayList<LeaderboardEntry> scores) {
+            this.offset = offset;
+            this.total = total;
+            this.scores = scores;
+        }
+    }
+    
+    // Hämtar platserna offset + 1 ... offset + limit. En server utan sidor svarar med hela listan
+    // och utan X-Total-Count, och då blir det en sida från plats 1 med allt den skickade.
+    static TopScoresPage getTopScoresPage(String window, int offset, int limit) throws IOException {
+        String url = SERVER_URL + "/top?" + (window.equals(WINDOW_ALL) ? "" : "window=" + window + "&")
+                + "offset=" + offset + "&limit=" + limit;
+        long start = System.nanoTime();
+        GameEvents.LeaderboardIoEvent event = new GameEvents.LeaderboardIoEvent();
+        event.begin();
+        int status = -1;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(3000);
+            connection.setReadTimeout(5000);
+            connection.setRequestProperty("Accept", ScoreBinary.ACCEPT);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                // Felsvaret läses ut så att anslutningen kan återanvändas
+                InputStream error = connection.getErrorStream();
+                if (error != null) {
+                    try (error) {
+                        error.readAllBytes();
+                    }
+                }
+                throw new IOException("HTTP " + status + " från " + url);
+            }
+            String contentType = connection.getContentType();
+            ArrayList<LeaderboardEntry> scores = new ArrayList<>();
+            try (InputStream in = connection.getInputStream()) {
+                boolean gzip = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+                parseTopScores(gzip ? new GZIPInputStream(in) : in, contentType, scores);
+            }
+            if (ScoreBinary.isBinary(contentType)) {
+                serverSpeaksBinary = true;
+            }
+            String total = connection.getHeaderField("X-Total-Count");
+            if (total == null) {
+                return new TopScoresPage(0, scores.size(), scores);
+            }
+            try {
+                return new TopScoresPage(offset, Integer.parseInt(total.trim()), scores);
+            } catch (NumberFormatException e) {
+                throw new IOException("Ogiltigt X-Total-Count från " + url + ": " + total);
+            }
+        } finally {
+            Telemetry.leaderboardIo(event, start, "GET", url, status, 1, 0);
+        }
+    }
+    
+    // Läser alla {"playerName":..., "score":...} ur svarets array, namn får innehålla , : och "
+    static void parseTopScores(InputStream in, ArrayList<LeaderboardEntry> scores) throws IOException {
+        parseTopScores(in, "application/json", scores);
+    }
+    
+    // Som ovan, eller binärt om svarets Content-Type säger det
+    static void parseTopScores(InputStream in, String contentType, ArrayList<LeaderboardEntry> scores) throws IOException {
+        ScoreBinary.readScores(in, contentType, "playerName", (name, score) -> scores.add(new LeaderboardEntry(name, score)));
+    }
+    
+    // Lokal leaderboard (leaderboard.log och leaderboard.snap i arbetskatalogen), öppnas första gången den behövs
+    private static LocalScoreStore localStore;
+    
+    private static synchronized LocalScoreStore localStore() throws IOException {
+        if (localStore == null) {
+            localStore = new LocalScoreStore(new File(".").toPath(), "leaderboard", TOP_COUNT);
+        }
+        return localStore;
     }
     
     // Hämta lokala poäng om servern inte är tillgänglig
     private static void loadLocalScores(ArrayList<LeaderboardEntry> scores) {
         try {
-            File file = new File("leaderboard.dat");
-            if (file.exists()) {
-                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                    @SuppressWarnings("unchecked")
-                    ArrayList<LeaderboardEntry> savedScores = (ArrayList<LeaderboardEntry>) ois.readObject();
-                    scores.addAll(savedScores);
-                }
+            for (ScoreEntry entry : localStore().topScores()) {
+                scores.add(new LeaderboardEntry(entry.name, entry.score));
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
     
-    // Spara poäng lokalt om servern inte är tillgänglig
+    // Spara poäng lokalt om servern inte är tillgänglig. Lägger bara till en post i loggen,
+    // lagret håller själv reda på top 10.
     public static void saveLocalScore(String playerName, int score) {
-        ArrayList<LeaderboardEntry> scores = new ArrayList<>();
-        loadLocalScores(scores);
-        
-        scores.add(new LeaderboardEntry(playerName, score));
-        
-        // Sortera efter poäng (högst först)
-        Collections.sort(scores, Comparator.comparing(LeaderboardEntry::getScore).reversed());
-        
-        // Spara bara top 10
-        if (scores.size() > 10) {
-            scores = new ArrayList<>(scores.subList(0, 10));
-        }
-        
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("leaderboard.dat"))) {
-            oos.writeObject(scores);
+        try {
+            localStore().append(playerName, score);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 }
 
+// ListModel för topplistan som hämtar en sida i taget, först när dess rader ska ritas. Bara de
+// senast använda MAX_PAGES sidorna hålls i minnet, så även en lista med en miljon poäng kostar
+// några hundra inlägg, och dialogen kan visas innan något har hämtats. Rader vars sida inte har
+// kommit än är null. Allt utom själva hämtningen körs på EDT. En sida hämtas åt gången, den senast
+// efterfrågade först, så när man drar i rullningslisten kommer raderna som syns just nu först.
+class LeaderboardListModel extends AbstractListModel<LeaderboardEntry> {
+    private static final long serialVersionUID = 1L;
+    static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 20;
+    
+    // En tråd räcker för alla listor, varje lista hämtar bara en sida åt gången
+    private static final ExecutorService fetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "leaderboard-pages");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // En hämtad sida och versionen av listan den hämtades för
+    private static final class Page {
+        final LeaderboardEntry[] entries;
+        final int version;
+        
+        Page(LeaderboardEntry[] entries, int version) {
+            this.entries = entries;
+            this.version = version;
+        }
+    }
+    
+    private final String window;
+    private int size = 0;
+    private boolean loaded = false;
+    // Ökar när listan har ändrats hos servern; sidor från äldre versioner visas tills de hämtats om
+    private int version = 0;
+    // De översta raderna som strömmen skickade senast; de gäller före sida 0 och hämtas aldrig om
+    private LeaderboardEntry[] top = new LeaderboardEntry[0];
+    // Sidnummer -> sida, den minst nyligen använda först
+    private final LinkedHashMap<Integer, Page> pages = new LinkedHashMap<Integer, Page>(MAX_PAGES * 2, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    // Sidor som ska hämtas, den senast efterfrågade först
+    private final ArrayDeque<Integer> wanted = new ArrayDeque<>();
+    // Sidan som hämtas just nu, -1 om ingen
+    private int fetching = -1;
+    private boolean closed = false;
+    
+    LeaderboardListModel(String window) {
+        this.window = window;
+        request(0);
+    }
+    
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    @Override
+    public LeaderboardEntry getElementAt(int index) {
+        if (index < top.length) {
+            return top[index];
+        }
+        int number = index / PAGE_SIZE;
+        Page page = pages.get(number);
+        if (page == null || page.version != version) {
+            request(number);
+        }
+        return shown(index);
+    }
+    
+    // Raden som visas nu, utan att hämta något
+    private LeaderboardEntry shown(int index) {
+        if (index < top.length) {
+            return top[index];
+        }
+        Page page = pages.get(index / PAGE_SIZE);
+        int offset = index % PAGE_SIZE;
+        return page != null && offset < page.entries.length ? page.entries[offset] : null;
+    }
+    
+    // Ny topplista från strömmen: raderna läggs direkt överst och bara de som ändrats ritas om.
+    // Platserna under dem kan ha flyttats, så de hämtade sidorna blir gamla och hämtas om när de
+    // ritas nästa gång. En lista kortare än TOP_COUNT är hela topplistan.
+    void applyTop(ArrayList<LeaderboardEntry> scores) {
+        if (closed) {
+            return;
+        }
+        LeaderboardEntry[] previous = new LeaderboardEntry[scores.size()];
+        for (int i = 0; i < previous.length && i < size; i++) {
+            previous[i] = shown(i);
+        }
+        top = scores.toArray(new LeaderboardEntry[0]);
+        version++;
+        loaded = true;
+        int oldSize = size;
+        if (top.length < LeaderboardManager.TOP_COUNT) {
+            size = top.length;
+        } else {
+            size = Math.max(size, top.length);
+        }
+        if (size > oldSize) {
+            fireIntervalAdded(this, oldSize, size - 1);
+        } else if (size < oldSize) {
+            fireIntervalRemoved(this, size, oldSize - 1);
+        }
+        for (int i = 0; i < Math.min(top.length, oldSize); i++) {
+            if (!top[i].equals(previous[i])) {
+                fireContentsChanged(this, i, i);
+            }
+        }
+    }
+    
+    // Inga fler hämtningar; svar som redan är på väg slängs
+    void close() {
+        closed = true;
+        wanted.clear();
+    }
+    
+    private void request(int number) {
+        if (closed || number == fetching) {
+            return;
+        }
+        wanted.remove(number);
+        wanted.addFirst(number);
+        // Sidor som efterfrågades för länge sedan syns troligen inte längre
+        while (wanted.size() > MAX_PAGES) {
+            wanted.removeLast();
+        }
+        fetchNext();
+    }
+    
+    private void fetchNext() {
+        if (closed || fetching >= 0 || wanted.isEmpty()) {
+            return;
+        }
+        int number = wanted.removeFirst();
+        int requestedVersion = version;
+        boolean first = !loaded;
+        fetching = number;
+        fetcher.execute(() -> {
+            LeaderboardManager.TopScoresPage page;
+            try {
+                page = LeaderboardManager.getTopScoresPage(window, number * PAGE_SIZE, PAGE_SIZE);
+            } catch (IOException e) {
+                System.out.println("Sida " + number + " av topplistan hämtades inte: " + e.getMessage());
+                // Första gången visas topp 10 som förut i stället, med de lokala poängen om servern inte svarar
+                if (first) {
+                    ArrayList<LeaderboardEntry> top = LeaderboardManager.getTopScores(window);
+                    page = new LeaderboardManager.TopScoresPage(0, top.size(), top);
+                } else {
+                    page = null;
+                }
+            }
+            LeaderboardManager.TopScoresPage result = page;
+            SwingUtilities.invokeLater(() -> {
+                fetching = -1;
+                if (result != null) {
+                    apply(result, requestedVersion);
+                }
+                fetchNext();
+            });
+        });
+    }
+    
+    private void apply(LeaderboardManager.TopScoresPage page, int pageVersion) {
+        if (closed) {
+            return;
+        }
+        loaded = true;
+        // Delas efter PAGE_SIZE, en server utan sidor kan ha skickat hela listan på en gång
+        for (int i = 0; i < page.scores.size(); i += PAGE_SIZE) {
+            LeaderboardEntry[] entries = page.scores.subList(i, Math.min(i + PAGE_SIZE, page.scores.size()))
+                    .toArray(new LeaderboardEntry[0]);
+            pages.put((page.offset + i) / PAGE_SIZE, new Page(entries, pageVersion));
+        }
+        int oldSize = size;
+        size = page.total;
+        if (size > oldSize) {
+            fireIntervalAdded(this, oldSize, size - 1);
+        } else if (size < oldSize) {
+            fireIntervalRemoved(this, size, oldSize - 1);
+        }
+        int last = Math.min(size, page.offset + page.scores.size()) - 1;
+        if (last >= page.offset) {
+            fireContentsChanged(this, page.offset, last);
+        }
+    }
+}
+
 // Klass för att visa leaderboard-dialog
 class LeaderboardDialog extends JDialog {
     private JList<LeaderboardEntry> leaderboardList;
-    private DefaultListModel<LeaderboardEntry> listModel;
+    private LeaderboardListModel listModel;
+    // Nya topplistor från servern medan dialogen är öppen
+    private LeaderboardFeed<ArrayList<LeaderboardEntry>> feed;
+    private static final String[] WINDOW_NAMES = {"Alla tider", "Veckan", "Idag"};
+    private static final String[] WINDOWS = {
+            LeaderboardManager.WINDOW_ALL, LeaderboardManager.WINDOW_WEEKLY, LeaderboardManager.WINDOW_DAILY};
     
     public LeaderboardDialog(JFrame parent) {
         super(parent, "Leaderboard", true);
+        // Stängningsrutan ska också gå via dispose(), annars fortsätter strömmen och hämtningarna
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         
         setSize(300, 400);
         setLocationRelativeTo(parent);
         setLayout(new BorderLayout());
         
-        // Skapa lista
-        listModel = new DefaultListModel<>();
-        leaderboardList = new JList<>(listModel);
+        // Skapa lista. Alla rader är lika höga, annars mäter JList varje rad i hela listan.
+        leaderboardList = new JList<>();
+        leaderboardList.setPrototypeCellValue(new LeaderboardEntry("Wwwwwwwwwwwwwwww", 1_000_000));
         leaderboardList.setCellRenderer(new DefaultListCellRenderer() {
             @Override
             public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
                 JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
                 LeaderboardEntry entry = (LeaderboardEntry) value;
-                label.setText((index + 1) + ". " + entry.getPlayerName() + " - " + entry.getScore());
+                if (entry == null) {
+                    label.setText((index + 1) + ". laddar...");
+                } else {
+                    label.setText((index + 1) + ". " + entry.getPlayerName() + " - " + entry.getScore());
+                }
                 return label;
             }
         });
@@ -195,31 +536,62 @@ class LeaderboardDialog extends JDialog {
         buttonPanel.add(closeButton);
         add(buttonPanel, BorderLayout.SOUTH);
         
-        // Lägg till titel
-        JLabel titleLabel = new JLabel("Top 10 Scores", JLabel.CENTER);
+        // Lägg till titel och val av tidsfönster
+        JLabel titleLabel = new JLabel("Top Scores", JLabel.CENTER);
         titleLabel.setFont(new Font("Arial", Font.BOLD, 18));
-        add(titleLabel, BorderLayout.NORTH);
+        JComboBox<String> windowBox = new JComboBox<>(WINDOW_NAMES);
+        windowBox.addActionListener(e -> showWindow(WINDOWS[windowBox.getSelectedIndex()]));
+        JPanel titlePanel = new JPanel(new BorderLayout());
+        titlePanel.add(titleLabel, BorderLayout.CENTER);
+        titlePanel.add(windowBox, BorderLayout.SOUTH);
+        add(titlePanel, BorderLayout.NORTH);
         
-        // Ladda poäng
-        loadScores();
+        // Ladda poäng och följ sedan ändringarna
+        showWindow(LeaderboardManager.WINDOW_ALL);
     }
     
-    private void loadScores() {
-        listModel.clear();
-        ArrayList<LeaderboardEntry> scores = LeaderboardManager.getTopScores();
-        for (LeaderboardEntry entry : scores) {
-            listModel.addElement(entry);
+    // Sidorna hämtas i bakgrunden, så dialogen visas direkt. Varje ny topplista från strömmen
+    // läggs direkt överst i listan; sidorna under den hämtas om först när de ritas igen.
+    private void showWindow(String window) {
+        close();
+        LeaderboardListModel model = new LeaderboardListModel(window);
+        listModel = model;
+        leaderboardList.setModel(model);
+        feed = LeaderboardManager.openTopScoresFeed(window,
+                scores -> model.applyTop(scores));
+    }
+    
+    private void close() {
+        if (feed != null) {
+            feed.close();
+        }
+        if (listModel != null) {
+            listModel.close();
         }
     }
+    
+    @Override
+    public void dispose() {
+        close();
+        super.dispose();
+    }
 }
 
 // Dialogruta för inmatning av spelarnamn
 class NameInputDialog extends JDialog {
     private JTextField nameField;
     private String playerName = null;
+    // Anropas med namnet när dialogen är icke-modal
+    private final Consumer<String> onName;
     
     public NameInputDialog(JFrame parent) {
-        super(parent, "Ange ditt namn", true);
+        this(parent, null);
+    }
+    
+    // Med onName blir dialogen icke-modal: spelet fortsätter ta emot tangenttryck bakom den
+    public NameInputDialog(JFrame parent, Consumer<String> onName) {
+        super(parent, "Ange ditt namn", onName == null);
+        this.onName = onName;
         
         setSize(300, 150);
         setLocationRelativeTo(parent);
@@ -239,6 +611,9 @@ class NameInputDialog extends JDialog {
             if (!nameField.getText().trim().isEmpty()) {
                 playerName = nameField.getText().trim();
                 dispose();
+                if (onName != null) {
+                    onName.accept(playerName);
+                }
             } else {
                 JOptionPane.showMessageDialog(this, "Vänligen ange ditt namn", "Fel", JOptionPane.ERROR_MESSAGE);
             }
@@ -259,16 +634,31 @@ class NameInputDialog extends JDialog {
 
 public class gametest extends JPanel implements ActionListener, KeyListener {
     Timer timer;
-    int playerX, playerY, playerVelocityY = 0;
-    boolean onPlatform = false;
-    ArrayList<Rectangle> platforms = new ArrayList<>();
-    // Track the ID of each platform to uniquely identify them
-    ArrayList<Integer> platformIds = new ArrayList<>();
-    // Track which platform IDs the player has already hit
-    ArrayList<Integer> hitPlatformIds = new ArrayList<>();
-    int nextPlatformId = 0;
-    int score = 0;
-    boolean isGameOver = false;
+    // Varje timeranrop kör de steg på 10 ms som hunnit gå, så spelet går lika fort oavsett hur
+    // ofta timern hinner anropas (-Dgame.tickRate, 100 per sekund som standard)
+    private final FixedStepClock clock = new FixedStepClock();
+    // Spelets fysik (spelare, plattformar, poäng) ligger i Simulation, panelen ritar bara
+    // Första plattformarna slumpas inom 300 pixlar; servern godtar bara repriser med just de
+    // inställningarna
+    Simulation simulation = new Simulation(Replay.PLATFORM_COUNT, Replay.SPAWN_RANGE);
+    // Spelar in rundan så att servern kan spela upp den igen och kontrollera poängen
+    Replay.Recorder recorder = new Replay.Recorder(simulation);
+
+    // Första rundan börjar vid första piltangenten så att ingen runda går förlorad medan
+    // fönstret öppnas eller namnet skrivs in
+    boolean started = false;
+    private boolean firstFrameRendered = false;
+    
+    // Det som ritas kopieras ut efter varje steg, så att bara det som ändrats behöver ritas om
+    private final GameSnapshot frame = new GameSnapshot(Simulation.DEFAULT_PLATFORM_COUNT);
+    private final DirtyRegion dirty = new DirtyRegion();
+    private final Rectangle clip = new Rectangle();
+    
+    // Texterna byggs bara om när de ändras, annars ritas de om från sparade GlyphVectors
+    private final CachedText heightText = new CachedText(0, 0, 200, 14);
+    private final CachedText nameText = new CachedText(0, 17, 300, 17);
+    private final CachedText hintText = new CachedText(100, 186, 400, 18);
+    private final CachedText gameOverText = new CachedText(190, 236, 310, 18);
 
     // Variabler för sidledsrörelse
     boolean moveLeft = false;
@@ -284,11 +674,10 @@ public class gametest extends JPanel implements ActionListener, KeyListener {
     private JFrame parentFrame;
 
     public gametest() {
-        timer = new Timer(10, this); // Speluppdatering var 10ms
+        timer = new Timer((int) FixedStepClock.periodMillis(FixedStepClock.configuredTickRate()), this); // Speluppdatering
         addKeyListener(this);
         setFocusable(true);
         setFocusTraversalKeysEnabled(false);
-        createPlatforms();
         timer.start();
 
         // Skapa och konfigurera restart-knappen
@@ -314,6 +703,8 @@ public class gametest extends JPanel implements ActionListener, KeyListener {
         setLayout(null);
         add(restartButton);
         add(leaderboardButton);
+        
+        simulation.copyTo(frame);
     }
     
     // Metod för att sätta föräldrareferensen
@@ -322,133 +713,124 @@ public class gametest extends JPanel implements ActionListener, KeyListener {
     }
 
     public void createPlatforms() {
-        platforms.clear();
-        platformIds.clear();
-        hitPlatformIds.clear();
-        nextPlatformId = 0;
-
-        // Skapa första plattformen där spelaren ska börja
-        Rectangle firstPlatform = new Rectangle(200, 400, 100, 10);
-        platforms.add(firstPlatform);
-        platformIds.add(nextPlatformId++);
-
-        // Startposition för spelaren på den första plattformen
-        playerX = firstPlatform.x + firstPlatform.width / 2 - 10; // Placera spelaren i mitten
-        playerY = firstPlatform.y - 20; // Placera spelaren ovanpå plattformen
-
-        // Skapa fler slumpmässiga plattformar
-        for (int i = 1; i < 5; i++) {
-            platforms.add(new Rectangle(new Random().nextInt(300), 400 - i * 100, 100, 10));
-            platformIds.add(nextPlatformId++);
-        }
+        // Skapar plattformarna på nytt och placerar spelaren på den första
+        simulation.reset();
+        recorder = new Replay.Recorder(simulation);
+        simulation.copyTo(frame);
+        dirty.invalidate();
     }
 
     public void paint(Graphics g) {
+        long start = System.nanoTime();
         super.paint(g);
+        if (!firstFrameRendered) {
+            firstFrameRendered = true;
+            StartupTimer.mark(StartupTimer.FIRST_FRAME);
+        }
+
+        // Bara området som ska ritas om (hela panelen om inget annat angetts)
+        clip.setBounds(0, 0, Simulation.WIDTH, Simulation.HEIGHT);
+        g.getClipBounds(clip);
 
         // Bakgrund
         g.setColor(Color.BLACK);
-        g.fillRect(0, 0, 500, 500);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
 
         // Spelare
         g.setColor(Color.RED);
-        g.fillRect(playerX, playerY, 20, 20);
+        g.fillRect(frame.getPlayerX(), frame.getPlayerY(), Simulation.PLAYER_SIZE, Simulation.PLAYER_SIZE);
 
-        // Plattformar
-        for (int i = 0; i < platforms.size(); i++) {
-            Rectangle platform = platforms.get(i);
-            int platformId = platformIds.get(i);
-            
+        // Plattformar (bara de på skärmen finns i frame)
+        for (int i = 0; i < frame.getPlatformCount(); i++) {
+            int y = frame.getPlatformY(i);
+            if (y >= clip.y + clip.height || y + Simulation.PLATFORM_HEIGHT <= clip.y) {
+                continue; // Utanför området som ritas om
+            }
             // Färga plattformen baserat på om den har besökts
-            if (hitPlatformIds.contains(platformId)) {
+            if (frame.isPlatformHit(i)) {
                 g.setColor(Color.GRAY); // Besökta plattformar är gråa
             } else {
                 g.setColor(Color.GREEN); // Obesökta plattformar är gröna
             }
             
-            g.fillRect(platform.x, platform.y, platform.width, platform.height);
+            g.fillRect(frame.getPlatformX(i), y, Simulation.PLATFORM_WIDTH, Simulation.PLATFORM_HEIGHT);
         }
 
         // Poäng
+        int score = frame.getScore();
         g.setColor(Color.WHITE);
-        g.drawString("Höjd: " + score, 10, 10);
-        g.drawString("Spelare: " + playerName, 10, 30);
+        if (heightText.isStale(score)) {
+            heightText.clear(score);
+            heightText.addLine(g, "Höjd: " + score, 10, 10);
+        }
+        heightText.draw(g);
+        if (nameText.isStale(0, playerName)) {
+            nameText.clear(0, playerName);
+            nameText.addLine(g, "Spelare: " + playerName, 10, 30);
+        }
+        nameText.draw(g);
+        if (!started) {
+            if (hintText.isStale(0)) {
+                hintText.clear(0);
+                hintText.addLine(g, "Tryck på vänster- eller högerpilen för att börja", 110, 200);
+            }
+            hintText.draw(g);
+        }
 
         // Kontrollera om spelet är över
-        if (isGameOver) {
-            g.setColor(Color.WHITE);
-            g.drawString("Game Over! Poäng: " + score, 200, 250);
-            restartButton.setVisible(true); // Visa knappen om spelet är över
-            leaderboardButton.setVisible(true); // Visa leaderboard-knappen om spelet är över
-        } else {
-            restartButton.setVisible(false); // Dölj knappen om spelet inte är över
-            leaderboardButton.setVisible(false); // Dölj leaderboard-knappen om spelet inte är över
+        if (frame.isGameOver()) {
+            if (gameOverText.isStale(score)) {
+                gameOverText.clear(score);
+                gameOverText.addLine(g, "Game Over! Poäng: " + score, 200, 250);
+            }
+            gameOverText.draw(g);
         }
+        
+        // Mätvärden (F3)
+        Telemetry.drawOverlay(g);
+        Telemetry.paintFinished(start);
     }
 
     public void actionPerformed(ActionEvent e) {
-        if (isGameOver) return;
-
-        playerY += playerVelocityY; // Uppdatera spelarens y-position baserat på hastigheten
-
-        // Kontrollera om spelaren faller ner (game over)
-        if (playerY > 500) {
-            gameOver();
-        }
-
-        // Anropa funktionen som gör att spelaren studsar om den landar på en plattform
-        bounceIfOnPlatform();
+        // Räknas även när spelet står still, annars skulle pausen köras ikapp när det börjar
+        int steps = clock.stepsDue(System.nanoTime());
+        if (!started || simulation.isGameOver() || steps == 0) return;
+        
+        // Mät intervallet mellan Swing-timerns anrop och hur lång tid steget tar
+        long start = Telemetry.tickStarted();
+        GameEvents.TickEvent event = Telemetry.beginTickEvent();
 
         // Hantera sidledsrörelse om vänster- eller högerpilen hålls in
-        if (moveLeft && playerX > 0) {
-            playerX -= 10; // Flytta vänster
+        int input = (moveLeft ? Simulation.INPUT_LEFT : 0) | (moveRight ? Simulation.INPUT_RIGHT : 0);
+
+        // Stegen som hunnit gå i simuleringen, fell blir true när spelaren precis har fallit ner (game over)
+        boolean fell = false;
+        for (int i = 0; i < steps && !fell; i++) {
+            int scoreBefore = simulation.getScore();
+            fell = recorder.step(input);
+            // Varje steg kan studsa, så studsarna räknas per steg
+            Telemetry.stepFinished(simulation, scoreBefore);
         }
-        if (moveRight && playerX < 480) {
-            playerX += 10; // Flytta höger
+        Telemetry.tickFinished(event, start, simulation);
+        if (fell) {
+            gameOver();
         }
 
-        // Flytta plattformarna och skapa nya
-        for (int i = 0; i < platforms.size(); i++) {
-            Rectangle platform = platforms.get(i);
-            platform.y += 1;
-            if (platform.y > 500) {
-                // När en plattform går utanför skärmen, skapa en ny
-                platform.y = -10;
-                platform.x = new Random().nextInt(400);
-                
-                // Ge plattformen ett nytt ID
-                platformIds.set(i, nextPlatformId++);
-            }
+        // Rita bara om det som har flyttats eller ändrats sedan förra steget
+        simulation.copyTo(frame);
+        dirty.update(frame);
+        if (dirty.scoreChanged()) {
+            dirty.add(heightText);
+        }
+        Telemetry.addOverlayTo(dirty);
+        if (!dirty.isEmpty()) {
+            repaint(dirty.getX(), dirty.getY(), dirty.getWidth(), dirty.getHeight());
         }
-
-        repaint(); // Rita om spelet
     }
 
     public void bounceIfOnPlatform() {
-        // Kontrollera om spelaren landar på en plattform
-        for (int i = 0; i < platforms.size(); i++) {
-            Rectangle platform = platforms.get(i);
-            int platformId = platformIds.get(i);
-            
-            if (playerY + 20 >= platform.y && playerY + 20 <= platform.y + 10 &&
-                playerX + 20 > platform.x && playerX < platform.x + platform.width) {
-                onPlatform = true;
-                playerVelocityY = -15; // Justera detta värde för att ändra hoppets höjd
-                
-                // Kolla om denna plattform inte har besökts tidigare
-                if (!hitPlatformIds.contains(platformId)) {
-                    score++; // Öka poängen endast för nya plattformar
-                    hitPlatformIds.add(platformId); // Markera plattformen som besökt
-                }
-            }
-        }
-
-        // Om inte på plattform, applicera gravitation
-        if (!onPlatform) {
-            playerVelocityY += 1; // Gravitation
-        }
-
-        onPlatform = false; // Återställ för nästa kontroll
+        // Studsa om spelaren landar på en plattform, annars applicera gravitation
+        simulation.bounceIfOnPlatform();
     }
     
     // Metod för att visa leaderboard
@@ -459,14 +841,24 @@ public class gametest extends JPanel implements ActionListener, KeyListener {
     
     // Metod för att hantera game over
     private void gameOver() {
-        isGameOver = true;
+        int score = simulation.getScore();
+        // Knapparna visas bara när spelet är över
+        restartButton.setVisible(true);
+        leaderboardButton.setVisible(true);
+        
+        String name = playerName;
+        Replay replay = recorder.finish();
         
-        // Försök först att skicka poäng till servern
-        boolean scoreSaved = LeaderboardManager.submitScore(playerName, score);
+        // Försök först att skicka poäng och repris till servern, utan att vänta på svaret här
+        boolean queued = LeaderboardManager.submitScore(name, score, replay, (success, responseCode) -> {
+            // Om det misslyckades, spara lokalt (körs på sändartråden, inte på EDT)
+            if (!success) {
+                LeaderboardManager.saveLocalScore(name, score);
+            }
+        });
         
-        // Om det misslyckades, spara lokalt
-        if (!scoreSaved) {
-            LeaderboardManager.saveLocalScore(playerName, score);
+        if (!queued) {
+            LeaderboardManager.saveLocalScore(name, score);
         }
     }
 
@@ -480,15 +872,14 @@ public class gametest extends JPanel implements ActionListener, KeyListener {
             playerName = dialog.getPlayerName();
         }
         
-        // Reset game state variables
-        isGameOver = false;
-        score = 0;
-        playerVelocityY = 0;
+        // Reset input state
         moveLeft = false;
         moveRight = false;
-        onPlatform = false;
+        started = true;
+        restartButton.setVisible(false);
+        leaderboardButton.setVisible(false);
         
-        // Recreate all platforms and reset player position
+        // Recreate all platforms, reset score and player position
         createPlatforms();
         
         // Make sure the timer is running
@@ -502,12 +893,22 @@ public class gametest extends JPanel implements ActionListener, KeyListener {
     // Hantera knapptryckningar för att flytta spelaren
     @Override
     public void keyPressed(KeyEvent e) {
+        if (e.getKeyCode() == KeyEvent.VK_LEFT || e.getKeyCode() == KeyEvent.VK_RIGHT) {
+            if (!started) {
+                started = true;
+                repaint(); // Ta bort instruktionen
+            }
+        }
         if (e.getKeyCode() == KeyEvent.VK_LEFT) {
             moveLeft = true; // Flytta vänster när vänsterpilen hålls in
         }
         if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
             moveRight = true; // Flytta höger när högerpilen hålls in
         }
+        if (e.getKeyCode() == KeyEvent.VK_F3) {
+            Telemetry.toggleOverlay(); // Visa eller dölj mätvärden
+            repaint();
+        }
     }
 
     // Släpp tangent
@@ -525,24 +926,35 @@ public class gametest extends JPanel implements ActionListener, KeyListener {
     public void keyTyped(KeyEvent e) { }
 
     public static void main(String[] args) {
+        StartupTimer.mark(StartupTimer.MAIN);
+        Telemetry.registerMBeanInBackground();
+        
+        // Hämta topplistan i bakgrunden så att den finns i cachen när leaderboarden öppnas
+        Thread preload = new Thread(() -> {
+            LeaderboardManager.getTopScores();
+            StartupTimer.mark(StartupTimer.SCORES_LOADED);
+        }, "leaderboard-preload");
+        preload.setDaemon(true);
+        preload.start();
+        
         JFrame frame = new JFrame();
         gametest game = new gametest();
         game.setParentFrame(frame); // Sätt föräldrareferensen
         
-        // Fråga efter spelarnamn
-        frame.setVisible(true); // Måste göra ramen synlig först
-        NameInputDialog dialog = new NameInputDialog(frame);
-        dialog.setVisible(true);
-        
-        // Om användaren angett ett namn, använd det
-        if (dialog.getPlayerName() != null) {
-            game.playerName = dialog.getPlayerName();
-        }
-        
+        // Visa spelet direkt, innan namnet har angetts
         frame.setTitle("Gymnasieprojekt - Java Game");
         frame.setSize(500, 500);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.add(game);
         frame.setLocationRelativeTo(null); // Centrera fönstret
+        frame.setVisible(true);
+        
+        // Fråga efter spelarnamn utan att blockera, tills dess heter spelaren "Player"
+        NameInputDialog dialog = new NameInputDialog(frame, name -> {
+            game.playerName = name;
+            game.repaint();
+            game.requestFocusInWindow();
+        });
+        dialog.setVisible(true);
     }
 }
\ No newline at end of file
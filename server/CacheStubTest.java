@@ -0,0 +1,136 @@
+package game;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+// Kontrollerar CachedResource mot en liten stubbserver som räknar förfrågningarna: läsningar inom
+// TTL kostar inget, en gammal lista förnyas med en 304 i bakgrunden, en ändrad lista hämtas en
+// gång efter invalidate(), en invalidate() under en pågående hämtning gäller fortfarande efteråt
+// och en död server ger den sparade listan.
+//
+// Starta med: java -cp <klasser> game.CacheStubTest
+// Avslutas med status 1 om någon kontroll misslyckas.
+public class CacheStubTest {
+    private static final long TTL_MILLIS = 200;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile int version = 1;
+    // Sätts för att hålla kvar nästa svar tills testet släpper det
+    private volatile CountDownLatch arrived;
+    private volatile CountDownLatch release;
+    private int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.exit(new CacheStubTest().run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/top", this::handle);
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/top";
+        CachedResource<String> cache = new CachedResource<>(url, TTL_MILLIS, TimeUnit.MILLISECONDS,
+                (in, contentType) -> new String(in.readAllBytes(), StandardCharsets.UTF_8));
+
+        check(cache.get().equals("lista 1") && requests.get() == 1, "första läsningen hämtar listan");
+
+        for (int i = 0; i < 100; i++) {
+            cache.get();
+        }
+        check(requests.get() == 1 && cache.getHits() == 100, "100 läsningar inom TTL utan förfrågan");
+
+        Thread.sleep(TTL_MILLIS + 50);
+        long start = System.nanoTime();
+        String stale = cache.get();
+        long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+        waitFor(() -> cache.getNotModified() == 1);
+        check(stale.equals("lista 1") && waitedMillis < TTL_MILLIS && requests.get() == 2
+                && notModified.get() == 1 && cache.getDownloads() == 1,
+                "gammal lista direkt, förnyad med en 304 (väntade " + waitedMillis + " ms)");
+
+        version = 2;
+        cache.invalidate();
+        check(cache.get().equals("lista 2") && requests.get() == 3 && cache.getDownloads() == 2,
+                "ändrad lista hämtas en gång efter invalidate()");
+
+        // invalidate() medan en hämtning pågår: svaret är äldre än ändringen och får inte räknas
+        // som förnyat
+        CountDownLatch gate = new CountDownLatch(1);
+        arrived = new CountDownLatch(1);
+        release = gate;
+        Thread refresher = new Thread(() -> {
+            try {
+                cache.refresh();
+            } catch (IOException e) {
+                System.out.println("hämtningen misslyckades: " + e.getMessage());
+            }
+        });
+        refresher.start();
+        arrived.await();
+        cache.invalidate();
+        gate.countDown();
+        refresher.join();
+        int before = requests.get();
+        cache.get();
+        check(requests.get() == before + 1, "invalidate() under en hämtning gäller fortfarande");
+
+        server.stop(0);
+        cache.invalidate();
+        check(cache.get().equals("lista 2"), "död server ger den sparade listan");
+
+        System.out.println(cache);
+        System.out.println(failures == 0 ? "alla kontroller gick igenom" : failures + " kontroller misslyckades");
+        return failures == 0;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        exchange.getRequestBody().close();
+        CountDownLatch gate = release;
+        if (gate != null) {
+            release = null;
+            arrived.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String etag = "\"" + version + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = ("lista " + version).getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void check(boolean passed, String what) {
+        System.out.println((passed ? "ok   " : "FEL  ") + what + " (förfrågningar: " + requests.get() + ")");
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
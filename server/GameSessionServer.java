@@ -0,0 +1,577 @@
+package game;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Server där spelet körs på servern i stället för i varje klients Swing-panel. Varje session är
+// en egen Simulation med en spelare och valfritt antal åskådare. Sessionerna delas upp på några
+// få ticktrådar (shards); varje tråd tar alla sina sessioners steg i samma varv med en
+// FixedStepClock och kodar sedan varje sessions ändringar en gång som en DELTA-ram som kopieras
+// till alla som tittar. All nätverkstrafik går via en enda NIO-selectortråd med icke-blockerande
+// socketar, och varje anslutning får högst en skrivning per varv. Protokollet står i
+// SessionProtocol.
+//
+// En klient som inte hinner läsa får inte en allt längre kö: när dess buffert är full slutar
+// servern skicka DELTA till den och skickar en FULL när det finns plats igen.
+//
+// Starta med: java -cp <klasser> game.GameSessionServer [port] [--shards n] [--tick-rate hz]
+//             [--send-rate hz] [--platforms n]
+// Lasttest med lokala klienter: game.SessionLoadTest
+public class GameSessionServer {
+    static final int DEFAULT_PORT = 7070;
+    static final int DEFAULT_SEND_RATE = 50;
+    // Det som får ligga och vänta på att skickas till en klient innan den måste synkas om
+    private static final int OUT_BUFFER_BYTES = 32 * 1024;
+    private static final int IN_BUFFER_BYTES = 256;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Shard[] shards;
+    private final int platformCount;
+    private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSessionId = new AtomicInteger(1);
+    private final AtomicInteger nextShard = new AtomicInteger();
+    // Anslutningar med nya data att skicka; töms av selectortråden
+    private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean running = false;
+    private Thread selectorThread;
+
+    // Mätvärden
+    final LatencyHistogram cycleTime = new LatencyHistogram();
+    final LongAdder steps = new LongAdder();
+    final LongAdder framesSent = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder resyncs = new LongAdder();
+
+    public GameSessionServer(int port) throws IOException {
+        this(port, 1, FixedStepClock.DEFAULT_TICK_RATE, DEFAULT_SEND_RATE, Simulation.DEFAULT_PLATFORM_COUNT);
+    }
+
+    public GameSessionServer(int port, int shardCount, int tickRate, int sendRate, int platformCount)
+            throws IOException {
+        if (shardCount < 1 || tickRate < 1 || sendRate < 1 || platformCount < 1) {
+            throw new IllegalArgumentException("shards, takter och plattformar måste vara minst 1");
+        }
+        this.platformCount = platformCount;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        // Skicka varje sendEvery:e varv, men aldrig oftare än varje varv
+        int sendEvery = Math.max(1, Math.round((float) tickRate / sendRate));
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, tickRate, sendEvery);
+        }
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void start() {
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "session-selector");
+        selectorThread.start();
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        try {
+            selectorThread.join(1000);
+            for (Shard shard : shards) {
+                shard.thread.join(1000);
+            }
+            selector.close();
+            serverChannel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Fel när servern stängdes: " + e);
+        }
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    // Processortid som serverns trådar har använt, i nanosekunder
+    public long cpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = Math.max(0, threads.getThreadCpuTime(selectorThread.getId()));
+        for (Shard shard : shards) {
+            total += Math.max(0, threads.getThreadCpuTime(shard.thread.getId()));
+        }
+        return total;
+    }
+
+    public String statsLine() {
+        return String.format("sessioner %d, anslutningar %d, steg %d, ramar %d, %.1f MB, omsynkningar %d, "
+                        + "varv p50 %d us p99 %d us max %d us",
+                getSessionCount(), getConnectionCount(), steps.sum(), framesSent.sum(), bytesSent.sum() / 1e6,
+                resyncs.sum(), cycleTime.percentile(50) / 1000, cycleTime.percentile(99) / 1000,
+                cycleTime.max() / 1000);
+    }
+
+    // Sessionen med id, för tester i samma process
+    Session session(int id) {
+        return sessions.get(id);
+    }
+
+    // ---- Selectortråden ----
+
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select();
+                wakeupPending.set(false);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(connection);
+                    }
+                }
+                // Det ticktrådarna lade till i senaste varvet, och svar på det som just lästes
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    flush(pending);
+                }
+            } catch (IOException e) {
+                System.out.println("Fel i selectortråden: " + e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                close((Connection) key.attachment());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            // Ramarna samlas redan ihop per varv, så Nagle skulle bara fördröja dem
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.incrementAndGet();
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            int read = connection.channel.read(connection.in);
+            if (read < 0) {
+                close(connection);
+                return;
+            }
+            connection.in.flip();
+            int length;
+            while ((length = SessionProtocol.nextFrame(connection.in)) > 0) {
+                int end = connection.in.position() + length;
+                handle(connection, connection.in, end);
+                connection.in.position(end);
+            }
+            connection.in.compact();
+            if (!connection.in.hasRemaining()) {
+                // Klienter skickar bara korta ramar
+                close(connection);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Trasiga ramar eller en nedkopplad klient stänger bara den anslutningen
+            close(connection);
+        }
+    }
+
+    private void handle(Connection connection, ByteBuffer in, int end) {
+        byte type = in.get();
+        Session session = connection.session;
+        switch (type) {
+            case SessionProtocol.PLAY:
+                if (session != null) {
+                    connection.sendError(SessionProtocol.ERR_BAD_MESSAGE);
+                    return;
+                }
+                play(connection);
+                break;
+            case SessionProtocol.SPECTATE:
+                int id = SessionProtocol.getVarint(in);
+                Session watched = sessions.get(id);
+                if (session != null || watched == null) {
+                    connection.sendError(session != null ? SessionProtocol.ERR_BAD_MESSAGE
+                            : SessionProtocol.ERR_NO_SUCH_SESSION);
+                    return;
+                }
+                connection.session = watched;
+                connection.sendWelcome(watched.id, SessionProtocol.ROLE_SPECTATOR);
+                watched.subscribers.add(connection);
+                break;
+            case SessionProtocol.INPUT:
+                int input = in.get() & (Simulation.INPUT_LEFT | Simulation.INPUT_RIGHT);
+                if (session == null || session.owner != connection) {
+                    connection.sendError(SessionProtocol.ERR_NOT_PLAYER);
+                    return;
+                }
+                session.input = input;
+                break;
+            case SessionProtocol.RESTART:
+                if (session == null || session.owner != connection) {
+                    connection.sendError(SessionProtocol.ERR_NOT_PLAYER);
+                    return;
+                }
+                session.restartRequested = true;
+                break;
+            default:
+                connection.sendError(SessionProtocol.ERR_BAD_MESSAGE);
+        }
+    }
+
+    private void play(Connection connection) {
+        int id = nextSessionId.getAndIncrement();
+        Session session = new Session(id, connection,
+                new Simulation(platformCount, 400, ThreadLocalRandom.current().nextLong()));
+        connection.session = session;
+        connection.sendWelcome(id, SessionProtocol.ROLE_PLAYER);
+        session.subscribers.add(connection);
+        sessions.put(id, session);
+        shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)].added.add(session);
+    }
+
+    private void flush(Connection connection) {
+        synchronized (connection) {
+            connection.queued = false;
+            if (!connection.key.isValid()) {
+                return;
+            }
+            connection.out.flip();
+            try {
+                int written = connection.channel.write(connection.out);
+                bytesSent.add(written);
+            } catch (IOException e) {
+                connection.out.clear();
+                close(connection);
+                return;
+            }
+            boolean more = connection.out.hasRemaining();
+            connection.out.compact();
+            connection.key.interestOps(more ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        connections.decrementAndGet();
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Redan stängd
+        }
+        Session session = connection.session;
+        if (session == null) {
+            return;
+        }
+        session.subscribers.remove(connection);
+        if (session.owner == connection) {
+            // Utan spelare finns inget att titta på
+            session.closed = true;
+            sessions.remove(session.id);
+            for (Connection spectator : session.subscribers) {
+                spectator.sendError(SessionProtocol.ERR_SESSION_CLOSED);
+                spectator.session = null;
+            }
+            session.subscribers.clear();
+        }
+    }
+
+    // Anropas av ticktrådarna när ett varv har lagt till data; väcker selectortråden en gång
+    private void requestFlush(Connection connection) {
+        pendingWrites.add(connection);
+    }
+
+    private void wakeSelector() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    // ---- Ticktrådarna ----
+
+    final class Shard implements Runnable {
+        final Thread thread;
+        final ConcurrentLinkedQueue<Session> added = new ConcurrentLinkedQueue<>();
+        private final ArrayList<Session> owned = new ArrayList<>();
+        private final FixedStepClock clock;
+        private final long periodNanos;
+        private final int sendEvery;
+        private long cycle = 0;
+
+        Shard(int index, int tickRate, int sendEvery) {
+            this.periodNanos = TimeUnit.SECONDS.toNanos(1) / tickRate;
+            clock = new FixedStepClock(tickRate);
+            this.sendEvery = sendEvery;
+            thread = new Thread(this, "session-tick-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long nextCycle = System.nanoTime();
+            while (running) {
+                long start = System.nanoTime();
+                Session session;
+                while ((session = added.poll()) != null) {
+                    owned.add(session);
+                }
+                int due = clock.stepsDue(start);
+                boolean send = cycle++ % sendEvery == 0;
+                boolean wrote = false;
+                long stepped = 0;
+                for (int i = owned.size() - 1; i >= 0; i--) {
+                    session = owned.get(i);
+                    if (session.closed) {
+                        // Sista elementet flyttas in i luckan, ordningen spelar ingen roll
+                        owned.set(i, owned.get(owned.size() - 1));
+                        owned.remove(owned.size() - 1);
+                        continue;
+                    }
+                    session.step(due);
+                    stepped += due;
+                    if (send) {
+                        wrote |= session.broadcast();
+                    }
+                }
+                if (wrote) {
+                    wakeSelector();
+                }
+                steps.add(stepped);
+                long end = System.nanoTime();
+                cycleTime.record(end - start);
+
+                nextCycle += periodNanos;
+                long sleep = nextCycle - System.nanoTime();
+                if (sleep > 0) {
+                    LockSupport.parkNanos(sleep);
+                } else {
+                    nextCycle = System.nanoTime();
+                }
+            }
+        }
+    }
+
+    final class Session {
+        final int id;
+        final Connection owner;
+        final Simulation simulation;
+        final CopyOnWriteArrayList<Connection> subscribers = new CopyOnWriteArrayList<>();
+        volatile int input = Simulation.INPUT_NONE;
+        volatile boolean restartRequested = false;
+        volatile boolean closed = false;
+        // Ticktrådens egna: senast skickade läge, nuvarande läge och kodade ramar
+        private GameSnapshot sent;
+        private GameSnapshot current;
+        private final ByteBuffer delta = ByteBuffer.allocate(SessionProtocol.MAX_FRAME);
+        private final ByteBuffer full = ByteBuffer.allocate(SessionProtocol.MAX_FRAME);
+        private boolean sentAnything = false;
+        private int deltaLength, fullLength;
+
+        Session(int id, Connection owner, Simulation simulation) {
+            this.id = id;
+            this.owner = owner;
+            this.simulation = simulation;
+            sent = new GameSnapshot(16);
+            current = new GameSnapshot(16);
+        }
+
+        void step(int due) {
+            if (restartRequested) {
+                restartRequested = false;
+                simulation.reset();
+            }
+            int stepInput = input;
+            for (int i = 0; i < due && !simulation.isGameOver(); i++) {
+                simulation.step(stepInput);
+            }
+        }
+
+        // Kodar ändringarna sedan förra gången och lägger dem i alla tittares buffertar.
+        // Returnerar true om något lades till.
+        boolean broadcast() {
+            simulation.copyTo(current);
+            boolean unchanged = sentAnything && current.getTick() == sent.getTick()
+                    && current.isGameOver() == sent.isGameOver();
+            deltaLength = !sentAnything ? -1 : SessionProtocol.encodeDelta(delta, sent, current);
+            fullLength = -1;
+            boolean wrote = false;
+            for (Connection connection : subscribers) {
+                wrote |= connection.sendUpdate(this, unchanged);
+            }
+            GameSnapshot swap = sent;
+            sent = current;
+            current = swap;
+            sentAnything = true;
+            return wrote;
+        }
+
+        // FULL för läget i det här varvet, kodad första gången någon behöver den
+        private int fullFrame() {
+            if (fullLength < 0) {
+                fullLength = SessionProtocol.encodeFull(full, current);
+            }
+            return fullLength;
+        }
+    }
+
+    final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(IN_BUFFER_BYTES);
+        // Skrivläge; skyddas av anslutningens monitor
+        final ByteBuffer out = ByteBuffer.allocateDirect(OUT_BUFFER_BYTES);
+        volatile Session session;
+        // Skyddas av monitorn: nästa ram måste vara en FULL, och om anslutningen redan väntar
+        // i pendingWrites
+        boolean needsFull = true;
+        boolean queued = false;
+        volatile boolean closed = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Från ticktråden under Session.broadcast: DELTA om klienten har föregående läge, annars FULL
+        synchronized boolean sendUpdate(Session from, boolean unchanged) {
+            if (needsFull || from.deltaLength < 0) {
+                if (!append(from.full, from.fullFrame())) {
+                    return false;
+                }
+                needsFull = false;
+                return true;
+            }
+            if (unchanged) {
+                return false;
+            }
+            if (!append(from.delta, from.deltaLength)) {
+                // Ramen tappas, så klienten kan inte längre bygga vidare på DELTA
+                needsFull = true;
+                resyncs.increment();
+                return false;
+            }
+            return true;
+        }
+
+        // Från selectortråden, som tömmer pendingWrites innan den väntar igen
+        synchronized void sendWelcome(int sessionId, byte role) {
+            ByteBuffer body = ByteBuffer.allocate(8);
+            body.put(SessionProtocol.WELCOME);
+            SessionProtocol.putVarint(body, sessionId);
+            body.put(role);
+            append(body, body.position());
+            needsFull = true;
+        }
+
+        synchronized void sendError(byte code) {
+            ByteBuffer body = ByteBuffer.allocate(2);
+            body.put(SessionProtocol.ERROR);
+            body.put(code);
+            append(body, body.position());
+            wakeSelector();
+        }
+
+        private boolean append(ByteBuffer body, int length) {
+            if (closed || out.remaining() < SessionProtocol.frameSize(length)) {
+                return false;
+            }
+            SessionProtocol.putFrame(out, body, 0, length);
+            framesSent.increment();
+            if (!queued) {
+                queued = true;
+                requestFlush(this);
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = Integer.parseInt(System.getenv().getOrDefault("PORT", String.valueOf(DEFAULT_PORT)));
+        int shardCount = 1;
+        int tickRate = FixedStepClock.DEFAULT_TICK_RATE;
+        int sendRate = DEFAULT_SEND_RATE;
+        int platforms = Simulation.DEFAULT_PLATFORM_COUNT;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--shards":
+                    shardCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--tick-rate":
+                    tickRate = Integer.parseInt(args[++i]);
+                    break;
+                case "--send-rate":
+                    sendRate = Integer.parseInt(args[++i]);
+                    break;
+                case "--platforms":
+                    platforms = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    port = Integer.parseInt(args[i]);
+            }
+        }
+        GameSessionServer server = new GameSessionServer(port, shardCount, tickRate, sendRate, platforms);
+        server.start();
+        System.out.println("Spelservern kör på port " + server.getPort() + " med " + shardCount + " ticktrådar");
+        while (true) {
+            Thread.sleep(5000);
+            System.out.println(server.statsLine());
+        }
+    }
+}
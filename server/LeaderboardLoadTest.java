@@ -0,0 +1,372 @@
+package game;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Lastgenerator för leaderboard-API:t med öppen modell: förfrågningar startas i jämn takt (--rate
+// per sekund) oavsett hur snabbt servern svarar, som när många spelare spelar samtidigt, i stället
+// för att varje klient väntar på sitt svar som i SubmitLoadTest. Blandningen av anrop väljs med
+// --mix, t.ex. submit=10,top=90 (POST av en poäng som gametests submitScore, GET av topplistan som
+// getTopScores med If-None-Match som CachedResource skickar) eller med rank=.. för platsfrågor.
+//
+// Svarstiden räknas från när förfrågan skulle ha startat enligt takten, inte från när den faktiskt
+// skickades. Annars döljer en server som står still sin egen kö (coordinated omission): de
+// förfrågningar som borde ha skickats under stoppet skulle bara mätas från när de väl kom iväg.
+// Tiden från faktisk sändning skrivs ut för jämförelse som tjänstetid. Förfrågningar som aldrig
+// skickas för att --max-in-flight redan är nått räknas som fel och med tidsgränsens svarstid, så
+// att de inte heller försvinner ur percentilerna.
+//
+// Starta med: java -cp <klasser> game.LeaderboardLoadTest [--rate n] [--seconds s] [--warmup s]
+//             [--mix submit=10,top=90] [--url http://localhost:8080] [--paths api|gametest]
+//             [--no-etag] [--max-in-flight n] [--in-process] [--data katalog]
+//             [--max-p99 ms] [--max-p999 ms] [--max-errors procent]
+// --paths gametest använder /leaderboard/submit och /leaderboard/top i stället för /api/leaderboard.
+// Med --in-process startas servern i samma process (i minnet, eller med skrivlogg i --data).
+// --max-p99, --max-p999 och --max-errors gör körningen till en spärr: avslutas med kod 1 om
+// någon gräns överskrids.
+public class LeaderboardLoadTest {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final class Operation {
+        final String name;
+        final int weight;
+        // Från planerad start respektive faktisk sändning, i nanosekunder
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram service = new LatencyHistogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder notModified = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        // Startades aldrig för att för många var på väg; räknas också i failed och i latency med
+        // REQUEST_TIMEOUT
+        final LongAdder skipped = new LongAdder();
+
+        Operation(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(3))
+            .build();
+    private final String baseUrl;
+    private final boolean gametestPaths;
+    private final boolean useEtag;
+    private final AtomicReference<String> topEtag = new AtomicReference<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder skipped = new LongAdder();
+    private final LatencyHistogram allLatency = new LatencyHistogram();
+    private final LatencyHistogram allService = new LatencyHistogram();
+    // Antal fel per orsak, t.ex. "HTTP 503" eller undantagets klass
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private LeaderboardLoadTest(String baseUrl, boolean gametestPaths, boolean useEtag) {
+        this.baseUrl = baseUrl;
+        this.gametestPaths = gametestPaths;
+        this.useEtag = useEtag;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = 1000;
+        int seconds = 30;
+        int warmup = 5;
+        String mix = "submit=10,top=90";
+        String url = "http://localhost:" + LeaderboardServer.DEFAULT_PORT;
+        boolean gametestPaths = false;
+        boolean useEtag = true;
+        int maxInFlight = 500;
+        boolean inProcess = false;
+        Path dataDirectory = null;
+        double maxP99 = -1, maxP999 = -1, maxErrors = -1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rate":
+                    rate = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--mix":
+                    mix = args[++i];
+                    break;
+                case "--url":
+                    url = args[++i];
+                    break;
+                case "--paths":
+                    String paths = args[++i];
+                    if (!paths.equals("api") && !paths.equals("gametest")) {
+                        throw new IllegalArgumentException("--paths ska vara api eller gametest");
+                    }
+                    gametestPaths = paths.equals("gametest");
+                    break;
+                case "--no-etag":
+                    useEtag = false;
+                    break;
+                case "--max-in-flight":
+                    maxInFlight = Integer.parseInt(args[++i]);
+                    break;
+                case "--in-process":
+                    inProcess = true;
+                    break;
+                case "--data":
+                    dataDirectory = Path.of(args[++i]);
+                    break;
+                case "--max-p99":
+                    maxP99 = Double.parseDouble(args[++i]);
+                    break;
+                case "--max-p999":
+                    maxP999 = Double.parseDouble(args[++i]);
+                    break;
+                case "--max-errors":
+                    maxErrors = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("okänt argument " + args[i]);
+            }
+        }
+        ArrayList<Operation> operations = parseMix(mix);
+
+        LeaderboardServer server = null;
+        if (inProcess) {
+            server = new LeaderboardServer(0, false, dataDirectory);
+            server.start();
+            url = "http://localhost:" + server.getPort();
+        }
+        LeaderboardLoadTest test = new LeaderboardLoadTest(url, gametestPaths, useEtag);
+        ExecutorService executor = LeaderboardServer.virtualThreadExecutor();
+        boolean virtual = executor != null;
+        if (executor == null) {
+            // Utan virtuella trådar får poolen växa; en fast pool skulle bli en kö och göra lasten sluten
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "load-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        System.out.printf("%d förfrågningar/s i %d s (+%d s uppvärmning) mot %s, %s, %s trådar%n",
+                rate, seconds, warmup, url, mix, virtual ? "virtuella" : "vanliga");
+
+        long elapsed = test.run(operations, executor, rate, warmup, seconds, maxInFlight);
+        executor.shutdown();
+        executor.awaitTermination(REQUEST_TIMEOUT.toSeconds() + 1, TimeUnit.SECONDS);
+        boolean passed = test.report(operations, elapsed, maxP99, maxP999, maxErrors);
+        if (server != null) {
+            server.stop();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    // submit=10,top=90 -> en Operation per anrop med sin vikt
+    private static ArrayList<Operation> parseMix(String mix) {
+        ArrayList<Operation> operations = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            String name = pair[0].trim();
+            if (pair.length != 2 || !(name.equals("submit") || name.equals("top") || name.equals("rank"))) {
+                throw new IllegalArgumentException("--mix ska se ut som submit=10,top=90 (även rank=..)");
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                operations.add(new Operation(name, weight));
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("--mix har inga anrop");
+        }
+        return operations;
+    }
+
+    // Startar förfrågningarna i takt och returnerar mätfönstrets längd i nanosekunder
+    private long run(ArrayList<Operation> operations, ExecutorService executor, int rate, int warmup,
+            int seconds, int maxInFlight) {
+        int totalWeight = 0;
+        for (Operation operation : operations) {
+            totalWeight += operation.weight;
+        }
+        Random random = new Random(1);
+        double periodNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * periodNanos);
+            if (intended >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            int pick = random.nextInt(totalWeight);
+            Operation operation = operations.get(0);
+            for (Operation candidate : operations) {
+                pick -= candidate.weight;
+                if (pick < 0) {
+                    operation = candidate;
+                    break;
+                }
+            }
+            boolean measured = intended >= measureFrom;
+            if (inFlight.get() >= maxInFlight) {
+                // Servern har redan tappat takten; räknas som fel med tidsgränsen som svarstid i
+                // stället för att växa utan gräns
+                if (measured) {
+                    operation.latency.record(REQUEST_TIMEOUT.toNanos());
+                    allLatency.record(REQUEST_TIMEOUT.toNanos());
+                    operation.failed.increment();
+                    operation.skipped.increment();
+                    skipped.increment();
+                }
+                continue;
+            }
+            inFlight.incrementAndGet();
+            Operation chosen = operation;
+            int sequence = (int) i;
+            executor.execute(() -> {
+                try {
+                    send(chosen, sequence, intended, measured);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+        return end - measureFrom;
+    }
+
+    private void send(Operation operation, int sequence, long intended, boolean measured) {
+        HttpRequest request = request(operation.name, sequence);
+        long sent = System.nanoTime();
+        int status;
+        String error = null;
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            status = response.statusCode();
+            if (operation.name.equals("top") && status == 200 && useEtag) {
+                response.headers().firstValue("ETag").ifPresent(topEtag::set);
+            }
+        } catch (IOException e) {
+            status = -1;
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = -1;
+            error = "avbruten";
+        }
+        long done = System.nanoTime();
+        if (!measured) {
+            return;
+        }
+        operation.latency.record(done - intended);
+        operation.service.record(done - sent);
+        allLatency.record(done - intended);
+        allService.record(done - sent);
+        if (status == 304) {
+            operation.notModified.increment();
+        } else if (status / 100 == 2) {
+            operation.ok.increment();
+        } else {
+            operation.failed.increment();
+            errors.computeIfAbsent(error != null ? error : "HTTP " + status, k -> new LongAdder()).increment();
+        }
+    }
+
+    private HttpRequest request(String name, int sequence) {
+        String leaderboard = baseUrl + (gametestPaths ? "/leaderboard" : "/api/leaderboard");
+        int score = sequence * 7919 % 100_000;
+        switch (name) {
+            case "submit": {
+                String body = ScoreJson.appendEntry(new StringBuilder(), "playerName", "last" + sequence % 1000,
+                        score).toString();
+                return HttpRequest.newBuilder(URI.create(gametestPaths ? leaderboard + "/submit" : leaderboard))
+                        .timeout(REQUEST_TIMEOUT)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                        .build();
+            }
+            case "top": {
+                HttpRequest.Builder builder = HttpRequest.newBuilder(
+                        URI.create(gametestPaths ? leaderboard + "/top" : leaderboard)).timeout(REQUEST_TIMEOUT);
+                String etag = topEtag.get();
+                if (etag != null) {
+                    builder.header("If-None-Match", etag);
+                }
+                return builder.GET().build();
+            }
+            default:
+                return HttpRequest.newBuilder(URI.create(leaderboard + "/rank?score=" + score))
+                        .timeout(REQUEST_TIMEOUT).GET().build();
+        }
+    }
+
+    // Skriver ut resultatet och returnerar false om någon gräns överskreds
+    private boolean report(ArrayList<Operation> operations, long elapsedNanos, double maxP99, double maxP999,
+            double maxErrors) {
+        System.out.printf("%-8s %9s %9s %8s %7s %9s %9s %9s %9s %9s %11s%n", "anrop", "antal", "ok", "304",
+                "fel", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "tjänst p99");
+        long started = 0, ok = 0, notModified = 0, failed = 0;
+        for (Operation operation : operations) {
+            long count = operation.latency.count();
+            printRow(operation.name, count, operation.ok.sum(), operation.notModified.sum(),
+                    operation.failed.sum(), operation.latency, operation.service);
+            started += count;
+            ok += operation.ok.sum();
+            notModified += operation.notModified.sum();
+            failed += operation.failed.sum();
+        }
+        printRow("totalt", started, ok, notModified, failed, allLatency, allService);
+        double seconds = elapsedNanos / 1e9;
+        double errorPercent = started == 0 ? 0 : 100.0 * failed / started;
+        System.out.printf("%.0f förfrågningar/s startade, %.0f/s lyckade, %.2f%% fel (varav %d aldrig skickade)%n",
+                started / seconds, (ok + notModified) / seconds, errorPercent, skipped.sum());
+        errors.forEach((reason, count) -> System.out.println("  " + reason + ": " + count.sum()));
+
+        boolean passed = true;
+        if (maxP99 >= 0 && millis(allLatency, 99) > maxP99) {
+            System.out.printf("p99 %.2f ms är över gränsen %.2f ms%n", millis(allLatency, 99), maxP99);
+            passed = false;
+        }
+        if (maxP999 >= 0 && millis(allLatency, 99.9) > maxP999) {
+            System.out.printf("p99.9 %.2f ms är över gränsen %.2f ms%n", millis(allLatency, 99.9), maxP999);
+            passed = false;
+        }
+        if (maxErrors >= 0 && errorPercent > maxErrors) {
+            System.out.printf("%.2f%% fel är över gränsen %.2f%%%n", errorPercent, maxErrors);
+            passed = false;
+        }
+        if (maxP99 >= 0 || maxP999 >= 0 || maxErrors >= 0) {
+            System.out.println(passed ? "GODKÄND" : "UNDERKÄND");
+        }
+        return passed;
+    }
+
+    private static void printRow(String name, long count, long ok, long notModified, long failed,
+            LatencyHistogram latency, LatencyHistogram service) {
+        System.out.printf("%-8s %9d %9d %8d %7d %9.2f %9.2f %9.2f %9.2f %9.2f %11.2f%n", name, count, ok,
+                notModified, failed, millis(latency, 50), millis(latency, 90), millis(latency, 99),
+                millis(latency, 99.9), latency.max() / 1e6, millis(service, 99));
+    }
+
+    private static double millis(LatencyHistogram histogram, double percentile) {
+        return histogram.percentile(percentile) / 1e6;
+    }
+}
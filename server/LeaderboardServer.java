@@ -0,0 +1,648 @@
+package game;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+// Java-version av leaderboard-servern (samma kontrakt som SvelteLeaderboardServer) byggd på
+// JDK:ns com.sun.net.httpserver, så den kör helt offline utan Node eller jsonbin.io.
+//   GET  /api/leaderboard          topp 10 som [{"playerName":...,"score":...,"date":...}];
+//                                  ?window=daily eller weekly ger senaste dygnet eller veckan,
+//                                  all (eller inget) all tid, annat 400
+//   GET  /api/leaderboard?offset=..&limit=..   en sida: platserna offset + 1 ... offset + limit
+//                                  (offset 0 och limit 10 om de saknas, limit högst 100) med "rank"
+//                                  i varje post och X-Total-Count med hur många poäng listan har;
+//                                  går med ?window= också, men dygnet och veckan har bara topp 10
+//   POST /api/leaderboard          {"playerName":...,"score":...} -> 201 eller 400
+//   GET  /api/leaderboard/rank?score=..   {"score":...,"rank":...,"total":...}, platsen poängen
+//                                  har bland alla (lika poäng delar plats)
+//   GET  /api/leaderboard/around?rank=..[&count=..]   count poäng (10 om inget anges, högst 100)
+//                                  runt platsen, med "rank" i varje post; ?score=.. i stället för
+//                                  rank utgår från poängens plats
+//   GET  /leaderboard/top          samma som GET /api/leaderboard (för gametest)
+//   POST /leaderboard/submit       samma som POST /api/leaderboard men svarar 200 (för gametest)
+//   POST /api/replay?playerName=..&score=..   binär Replay; poängen sparas bara om reprisen
+//                                  spelad på nytt slutar på just den poängen -> 201, 400 eller 422
+//                                  (400 även för en repris med andra inställningar än spelets)
+//   POST /leaderboard/replay?...   samma men svarar 200 (för gametest)
+//   PUT  /v3/b/<id>                sparar en jsonbin-post (för Game med -Dgame.jsonbinUrl)
+//   GET  /v3/b/<id>/latest         {"record":<senast sparad>,"metadata":{...}}
+//   GET  /api/leaderboard/stream   server-sent events med topplistan varje gång den ändras,
+//                                  med samma ?window=, se RankStream (även /leaderboard/stream
+//                                  för gametest)
+//   GET  /leaderboard/rank, /leaderboard/around   samma som under /api/leaderboard (för gametest)
+// GET-svaren för topplistor och jsonbin-poster har en ETag och svarar 304 utan innehåll när If-None-Match redan är aktuell.
+// Med Accept: application/x-leaderboard-scores (se ScoreBinary) fås topplistor och jsonbin-posternas
+// namn och poäng binärt, och POST av en poäng får vara binär med samma Content-Type; utan den är
+// allt JSON som förut. Svar på minst GZIP_MIN_BYTES gzipas om klienten skickar Accept-Encoding: gzip.
+// Varje form har sin egen ETag.
+// Varje förfrågan körs på en egen virtuell tråd när JDK:n har dem (21+), annars på en fast pool.
+// Starta med: java -cp <klasser> game.LeaderboardServer [port] [--require-replay] [--data katalog]
+//             [--in-memory]
+// Med --require-replay tas poäng utan repris inte emot (403). Poängen sparas i en skrivlogg i
+// katalogen (leaderboard-data om inget anges) och läses in igen vid start, se ScoreLog; en POST
+// får sitt svar först när poängen är sparad på disk. Med --in-memory finns de bara i minnet.
+public class LeaderboardServer {
+    static final int DEFAULT_PORT = 8080;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int MAX_AROUND_COUNT = 100;
+    private static final int MAX_PAGE_COUNT = 100;
+    // Mindre svar får plats i ett TCP-paket ändå, och då kostar komprimeringen bara tid
+    private static final int GZIP_MIN_BYTES = 1024;
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final byte[] SAVED = "{\"message\":\"Poäng sparad\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INVALID = "{\"error\":\"Ogiltiga data\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REPLAY_MISMATCH = "{\"error\":\"Reprisen ger inte den poängen\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REPLAY_REQUIRED = "{\"error\":\"Poängen måste skickas med en repris\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] UNAVAILABLE = "{\"error\":\"Poängen kunde inte sparas\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND = "{\"error\":\"Hittades inte\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RECORD_PREFIX = "{\"record\":".getBytes(StandardCharsets.UTF_8);
+    private static final Bin EMPTY_BIN = new Bin("{\"record\":[]}".getBytes(StandardCharsets.UTF_8),
+            new ScoreBinary.Encoder(0).toByteArray(), "\"0\"");
+
+    private static final class Bin {
+        final byte[] record;
+        // Namnen och poängen i postens första lista, som Game läser dem; null om posten inte går att läsa så
+        final byte[] binary;
+        final String etag;
+
+        Bin(byte[] record, byte[] binary, String etag) {
+            this.record = record;
+            this.binary = binary;
+            this.etag = etag;
+        }
+    }
+
+    private final ScoreIndex index = new ScoreIndex();
+    // null när poängen bara finns i minnet
+    private final ScoreLog scoreLog;
+    private final ReplayVerifier verifier = new ReplayVerifier();
+    private final boolean requireReplay;
+    private final ConcurrentHashMap<String, Bin> bins = new ConcurrentHashMap<>();
+    private final AtomicLong binVersion = new AtomicLong();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ExecutorService streamExecutor;
+    private final EnumMap<ScoreIndex.Window, RankStream> streams = new EnumMap<>(ScoreIndex.Window.class);
+
+    public LeaderboardServer(int port) throws IOException {
+        this(port, false);
+    }
+
+    public LeaderboardServer(int port, boolean requireReplay) throws IOException {
+        this(port, requireReplay, null);
+    }
+
+    // Med dataDirectory läses sparade poäng in innan servern börjar lyssna
+    public LeaderboardServer(int port, boolean requireReplay, Path dataDirectory) throws IOException {
+        this.requireReplay = requireReplay;
+        scoreLog = dataDirectory != null ? new ScoreLog(dataDirectory, index) : null;
+        // Utan TCP_NODELAY väntar varje keep-alive-svar på fördröjd ACK (runt 40 ms per förfrågan).
+        // Inställningen läses när den första servern skapas.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/leaderboard", exchange -> handleLeaderboard(exchange, 201));
+        server.createContext("/leaderboard/top", exchange -> handleLeaderboard(exchange, 200));
+        server.createContext("/leaderboard/submit", exchange -> handleLeaderboard(exchange, 200));
+        server.createContext("/api/replay", exchange -> handleReplay(exchange, 201));
+        server.createContext("/leaderboard/replay", exchange -> handleReplay(exchange, 200));
+        server.createContext("/v3/b/", this::handleBin);
+        streamExecutor = streamExecutor();
+        for (ScoreIndex.Window window : ScoreIndex.Window.values()) {
+            streams.put(window, new RankStream(index, window, streamExecutor, RankStream.DEFAULT_MIN_INTERVAL_MILLIS));
+        }
+        server.createContext("/api/leaderboard/stream", this::handleStream);
+        server.createContext("/leaderboard/stream", this::handleStream);
+        server.createContext("/api/leaderboard/rank", this::handleRank);
+        server.createContext("/leaderboard/rank", this::handleRank);
+        server.createContext("/api/leaderboard/around", this::handleAround);
+        server.createContext("/leaderboard/around", this::handleAround);
+    }
+
+    public void start() {
+        for (RankStream stream : streams.values()) {
+            stream.start();
+        }
+        server.start();
+    }
+
+    public void stop() {
+        for (RankStream stream : streams.values()) {
+            stream.stop();
+        }
+        server.stop(0);
+        if (scoreLog != null) {
+            try {
+                scoreLog.close();
+            } catch (IOException e) {
+                System.out.println("Fel när poängloggen stängdes: " + e);
+            }
+        }
+        executor.shutdown();
+        streamExecutor.shutdown();
+    }
+
+    // Porten som servern faktiskt lyssnar på (intressant när den startats med port 0)
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    ScoreIndex getIndex() {
+        return index;
+    }
+
+    RankStream getStream() {
+        return streams.get(ScoreIndex.Window.ALL_TIME);
+    }
+
+    ScoreLog getScoreLog() {
+        return scoreLog;
+    }
+
+    private void handleStream(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            try (exchange) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                send(exchange, 405, null);
+            }
+            return;
+        }
+        ScoreIndex.Window window = ScoreIndex.Window.parse(queryParameter(exchange.getRequestURI(), "window"));
+        if (window == null) {
+            respond(exchange, 400, INVALID);
+            return;
+        }
+        // Utbytet stängs inte här, strömmen håller det öppet
+        streams.get(window).subscribe(exchange);
+    }
+
+    private void handleRank(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                send(exchange, 405, null);
+                return;
+            }
+            Integer score = intParameter(exchange.getRequestURI(), "score");
+            if (score == null) {
+                send(exchange, 400, INVALID);
+                return;
+            }
+            // Ändras med varje ny poäng, så den får inte sparas
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            String body = "{\"score\":" + score + ",\"rank\":" + index.rankOf(score) + ",\"total\":" + index.size() + "}";
+            send(exchange, 200, body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void handleAround(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                send(exchange, 405, null);
+                return;
+            }
+            URI uri = exchange.getRequestURI();
+            Integer rank = intParameter(uri, "rank");
+            Integer score = intParameter(uri, "score");
+            Integer count = intParameter(uri, "count");
+            if (rank == null && score != null) {
+                rank = index.rankOf(score);
+            }
+            if (count == null) {
+                count = ScoreIndex.TOP_COUNT;
+            }
+            if (rank == null || rank < 1 || count < 1 || count > MAX_AROUND_COUNT) {
+                send(exchange, 400, INVALID);
+                return;
+            }
+            int from = Math.max(1, rank - count / 2);
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            send(exchange, 200, ScoreIndex.toJson(index.around(from, count), from));
+        }
+    }
+
+    private void handleLeaderboard(HttpExchange exchange, int createdStatus) throws IOException {
+        if (exchange.getRequestMethod().equals("POST")) {
+            // Svaret skickas när poängen är sparad, kanske från en annan tråd
+            submit(exchange, createdStatus);
+            return;
+        }
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (method.equals("GET")) {
+                ScoreIndex.Window window = ScoreIndex.Window.parse(queryParameter(exchange.getRequestURI(), "window"));
+                if (window == null) {
+                    send(exchange, 400, INVALID);
+                    return;
+                }
+                URI uri = exchange.getRequestURI();
+                if (queryParameter(uri, "offset") != null || queryParameter(uri, "limit") != null) {
+                    sendPage(exchange, window);
+                    return;
+                }
+                ScoreIndex.TopList top = index.current(window);
+                boolean binary = ScoreBinary.prefersBinary(exchange.getRequestHeaders().getFirst("Accept"));
+                byte[] body = binary ? top.binary : top.json;
+                String etag = variantEtag(top.etag, binary, gzips(exchange, body));
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Vary", "Accept, Accept-Encoding");
+                if (matchesEtag(exchange, etag)) {
+                    send(exchange, 304, null);
+                } else {
+                    send(exchange, 200, body, binary ? ScoreBinary.CONTENT_TYPE : JSON);
+                }
+            } else if (method.equals("OPTIONS")) {
+                // CORS-förfrågan från Svelte-frontenden
+                exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Content-Type");
+                send(exchange, 204, null);
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET, POST, OPTIONS");
+                send(exchange, 405, null);
+            }
+        }
+    }
+
+    // Sidor ändras med nästan varje ny poäng, så de får ingen ETag och sparas inte
+    private void sendPage(HttpExchange exchange, ScoreIndex.Window window) throws IOException {
+        URI uri = exchange.getRequestURI();
+        // Saknade parametrar får sina standardvärden, men en som inte är ett tal är fel
+        Integer from = queryParameter(uri, "offset") == null ? Integer.valueOf(0) : intParameter(uri, "offset");
+        Integer count = queryParameter(uri, "limit") == null ? Integer.valueOf(ScoreIndex.TOP_COUNT) : intParameter(uri, "limit");
+        if (from == null || count == null || from < 0 || count < 1 || count > MAX_PAGE_COUNT) {
+            send(exchange, 400, INVALID);
+            return;
+        }
+        int total = index.size(window);
+        List<ScoreIndex.StoredScore> page = index.page(window, from, count);
+        boolean binary = ScoreBinary.prefersBinary(exchange.getRequestHeaders().getFirst("Accept"));
+        Headers headers = exchange.getResponseHeaders();
+        // Poäng som kom in mellan de två läsningarna kan ha gjort sidan längre än total
+        headers.set("X-Total-Count", Integer.toString(page.isEmpty() ? total : Math.max(total, from + page.size())));
+        headers.set("Access-Control-Expose-Headers", "X-Total-Count");
+        headers.set("Cache-Control", "no-store");
+        headers.set("Vary", "Accept, Accept-Encoding");
+        if (binary) {
+            send(exchange, 200, ScoreIndex.toBinary(page), ScoreBinary.CONTENT_TYPE);
+        } else {
+            send(exchange, 200, ScoreIndex.toJson(page, from + 1));
+        }
+    }
+
+    private void submit(HttpExchange exchange, int createdStatus) {
+        if (requireReplay) {
+            respond(exchange, 403, REPLAY_REQUIRED);
+            return;
+        }
+        String[] name = new String[1];
+        int[] score = new int[1];
+        ScoreJson.EntryHandler handler = (n, s) -> {
+            name[0] = n;
+            score[0] = s;
+        };
+        boolean valid;
+        try {
+            InputStream body = exchange.getRequestBody();
+            valid = ScoreBinary.isBinary(exchange.getRequestHeaders().getFirst("Content-Type"))
+                    ? ScoreBinary.readEntry(body, handler) : ScoreJson.readEntry(body, "playerName", handler);
+        } catch (IOException e) {
+            valid = false;
+        }
+        // Samma validering som Node-servern: namnet får inte vara tomt och poängen måste vara ett tal
+        if (!valid || name[0].isEmpty()) {
+            respond(exchange, 400, INVALID);
+            return;
+        }
+        store(exchange, name[0], score[0], createdStatus);
+    }
+
+    // Lägger till poängen och svarar, med skrivloggen först när den är sparad på disk
+    private void store(HttpExchange exchange, String name, int score, int createdStatus) {
+        long time = System.currentTimeMillis();
+        if (scoreLog == null) {
+            index.add(name, score, time);
+            respond(exchange, createdStatus, SAVED);
+            return;
+        }
+        scoreLog.append(name, score, time).whenCompleteAsync((saved, error) -> {
+            if (error == null) {
+                respond(exchange, createdStatus, SAVED);
+            } else {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, UNAVAILABLE);
+            }
+        }, executor);
+    }
+
+    private void handleReplay(HttpExchange exchange, int createdStatus) {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            respond(exchange, 405, null);
+            return;
+        }
+        String name = queryParameter(exchange.getRequestURI(), "playerName");
+        String score = queryParameter(exchange.getRequestURI(), "score");
+        Replay replay;
+        int claimed;
+        try {
+            byte[] body = readBody(exchange.getRequestBody());
+            replay = Replay.fromBytes(body == null ? new byte[0] : body);
+            claimed = Integer.parseInt(score == null ? "" : score);
+        } catch (IOException | NumberFormatException e) {
+            replay = null;
+            claimed = -1;
+        }
+        if (replay == null || name == null || name.isEmpty()) {
+            respond(exchange, 400, INVALID);
+            return;
+        }
+        // Uppspelningen körs i verifierarens ForkJoinPool så att många samtidiga förfrågningar
+        // inte använder fler kärnor än poolen har
+        boolean valid;
+        try {
+            valid = verifier.verify(replay, claimed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, null);
+            return;
+        }
+        if (!valid) {
+            respond(exchange, 422, REPLAY_MISMATCH);
+            return;
+        }
+        store(exchange, name, claimed, createdStatus);
+    }
+
+    private static String queryParameter(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                try {
+                    return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    // null om parametern saknas eller inte är ett heltal
+    private static Integer intParameter(URI uri, String name) {
+        String value = queryParameter(uri, name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void handleBin(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath().substring("/v3/b/".length());
+            String method = exchange.getRequestMethod();
+            if (method.equals("GET") && path.endsWith("/latest")) {
+                String id = path.substring(0, path.length() - "/latest".length());
+                Bin bin = bins.getOrDefault(id, EMPTY_BIN);
+                boolean binary = bin.binary != null
+                        && ScoreBinary.prefersBinary(exchange.getRequestHeaders().getFirst("Accept"));
+                byte[] body = binary ? bin.binary : binJson(id, bin);
+                String etag = variantEtag(bin.etag, binary, gzips(exchange, body));
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Vary", "Accept, Accept-Encoding");
+                if (matchesEtag(exchange, etag)) {
+                    send(exchange, 304, null);
+                } else {
+                    send(exchange, 200, body, binary ? ScoreBinary.CONTENT_TYPE : JSON);
+                }
+            } else if (method.equals("PUT") && !path.isEmpty() && path.indexOf('/') < 0) {
+                byte[] record = readBody(exchange.getRequestBody());
+                if (record == null || !isJsonRecord(record)) {
+                    send(exchange, 400, INVALID);
+                    return;
+                }
+                bins.put(path, new Bin(record, binaryScores(record), ScoreIndex.ETAG_PREFIX + binVersion.incrementAndGet() + "\""));
+                send(exchange, 200, record);
+            } else {
+                send(exchange, 404, NOT_FOUND);
+            }
+        }
+    }
+
+    // {"record":<posten>,"metadata":{...}} som jsonbin svarar
+    private static byte[] binJson(String id, Bin bin) throws IOException {
+        StringBuilder metadata = new StringBuilder(",\"metadata\":{\"id\":");
+        ScoreJson.appendQuoted(metadata, id).append(",\"private\":true}}");
+        ByteArrayOutputStream body = new ByteArrayOutputStream(bin.record.length + 64);
+        body.write(RECORD_PREFIX);
+        body.write(bin.record);
+        body.write(metadata.toString().getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    // Namnen och poängen i postens första lista i binär form, eller null om posten inte går att läsa
+    private static byte[] binaryScores(byte[] record) {
+        ArrayList<ScoreEntry> entries = new ArrayList<>();
+        try {
+            ScoreJson.readScores(new ByteArrayInputStream(record), "name",
+                    (name, score) -> entries.add(new ScoreEntry(name, score)));
+        } catch (IOException e) {
+            return null;
+        }
+        ScoreBinary.Encoder encoder = new ScoreBinary.Encoder(entries.size());
+        for (ScoreEntry entry : entries) {
+            encoder.add(entry.name, entry.score);
+        }
+        return encoder.toByteArray();
+    }
+
+    // Samma innehåll i olika former får olika taggar, "abc-5" -> "abc-5-bin-gzip"
+    private static String variantEtag(String etag, boolean binary, boolean gzip) {
+        if (!binary && !gzip) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + (binary ? "-bin" : "") + (gzip ? "-gzip" : "") + "\"";
+    }
+
+    // Om send() kommer att gzipa body
+    private static boolean gzips(HttpExchange exchange, byte[] body) {
+        return body.length >= GZIP_MIN_BYTES && acceptsGzip(exchange);
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (header == null) {
+            return false;
+        }
+        for (String coding : header.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                // gzip;q=0 betyder att klienten inte vill ha gzip
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    // If-None-Match kan innehålla flera taggar eller *
+    private static boolean matchesEtag(HttpExchange exchange, String etag) {
+        String header = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // jsonbin accepterar bara objekt och listor som post, inte lösa värden
+    private static boolean isJsonRecord(byte[] record) {
+        for (byte b : record) {
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b == '{' || b == '[';
+            }
+        }
+        return false;
+    }
+
+    // Returnerar null om kroppen är större än MAX_BODY_BYTES
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+        return body.length > MAX_BODY_BYTES ? null : body;
+    }
+
+    // Skickar svaret och stänger utbytet; för svar som inte skickas inifrån try (exchange)
+    private static void respond(HttpExchange exchange, int status, byte[] body) {
+        try (exchange) {
+            send(exchange, status, body);
+        } catch (IOException e) {
+            // Klienten har redan gått
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        send(exchange, status, body, JSON);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Access-Control-Allow-Origin", "*");
+        if (body == null) {
+            // Svar utan innehåll räknas som färdiga redan i sendResponseHeaders, innan close() hunnit
+            // läsa klart förfrågan; då stänger JDK:ns server anslutningen i stället för att återanvända
+            // den, och klientens nästa förfrågan på den får "connection reset". Läs klart först.
+            exchange.getRequestBody().close();
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        headers.set("Content-Type", contentType);
+        if (body.length >= GZIP_MIN_BYTES) {
+            if (!headers.containsKey("Vary")) {
+                headers.set("Vary", "Accept-Encoding");
+            }
+            if (acceptsGzip(exchange)) {
+                body = gzip(body);
+                headers.set("Content-Encoding", "gzip");
+            }
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    // Virtuella trådar finns från JDK 21; på äldre JDK:er används en fast pool i stället
+    private static ExecutorService requestExecutor() {
+        ExecutorService virtual = virtualThreadExecutor();
+        return virtual != null ? virtual
+                : Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    // För skrivningar till strömmens klienter. En klient som slutat läsa håller sin tråd tills TCP
+    // ger upp, så utan virtuella trådar får poolen växa i stället för att vara fast.
+    private static ExecutorService streamExecutor() {
+        ExecutorService virtual = virtualThreadExecutor();
+        return virtual != null ? virtual : Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "rank-stream-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // En virtuell tråd per uppgift, eller null på JDK:er utan dem
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = System.getenv("PORT") != null ? Integer.parseInt(System.getenv("PORT")) : DEFAULT_PORT;
+        boolean requireReplay = false;
+        Path dataDirectory = Path.of("leaderboard-data");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--require-replay")) {
+                requireReplay = true;
+            } else if (args[i].equals("--data")) {
+                dataDirectory = Path.of(args[++i]);
+            } else if (args[i].equals("--in-memory")) {
+                dataDirectory = null;
+            } else {
+                port = Integer.parseInt(args[i]);
+            }
+        }
+        LeaderboardServer server = new LeaderboardServer(port, requireReplay, dataDirectory);
+        server.start();
+        System.out.println("Server igång på http://localhost:" + server.getPort());
+    }
+}
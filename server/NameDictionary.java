@@ -0,0 +1,148 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Varje spelarnamn sparas en gång, som UTF-8 utanför heapen, och får ett id i insättningsordning.
+// Namnen ligger efter varandra i block om CHUNK_BYTES direkt-minne ([längd u16][byte]); heapen har
+// bara primitiva arrayer (blockens början per id och en öppet adresserad hashtabell), så även
+// miljontals namn är en handfull objekt för skräpsamlaren. intern() får bara anropas av en tråd åt
+// gången; name() och copyName() kan anropas från andra trådar för id som de har fått via en
+// volatil skrivning efter intern(), som ScoreStore gör.
+final class NameDictionary {
+    private static final int CHUNK_BYTES = 1 << 20;
+    static final int MAX_NAME_BYTES = 0xFFFF;
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int chunkUsed = CHUNK_BYTES;
+    // Adress per id: block << 20 | position i blocket
+    private volatile int[] addresses = new int[1024];
+    private int[] hashes = new int[1024];
+    private int count = 0;
+    // id + 1 per plats, 0 för tom
+    private int[] table = new int[2048];
+
+    // Id för namnet; nya namn läggs till. Namn längre än MAX_NAME_BYTES kortas av vid en
+    // teckengräns, som i ScoreLog.truncatedUtf8.
+    int intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        if (length > MAX_NAME_BYTES) {
+            length = MAX_NAME_BYTES;
+            while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                length--;
+            }
+        }
+        int hash = hash(bytes, length);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                int id = add(bytes, length, hash);
+                table[slot] = id + 1;
+                if (count * 2 > table.length) {
+                    rehash();
+                }
+                return id;
+            }
+            if (hashes[entry - 1] == hash && equals(entry - 1, bytes, length)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    String name(int id) {
+        int address = addresses[id];
+        ByteBuffer chunk = chunks[address >>> 20];
+        int position = address & (CHUNK_BYTES - 1);
+        byte[] bytes = new byte[chunk.getShort(position) & 0xFFFF];
+        chunk.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Kopierar namnets UTF-8 till buffer om det får plats och returnerar längden
+    int copyName(int id, byte[] buffer) {
+        int address = addresses[id];
+        ByteBuffer chunk = chunks[address >>> 20];
+        int position = address & (CHUNK_BYTES - 1);
+        int length = chunk.getShort(position) & 0xFFFF;
+        if (length <= buffer.length) {
+            chunk.get(position + 2, buffer, 0, length);
+        }
+        return length;
+    }
+
+    // Direkt-minne respektive heap som ordboken håller
+    long offHeapBytes() {
+        return (long) chunks.length * CHUNK_BYTES;
+    }
+
+    long heapBytes() {
+        return 4L * (addresses.length + hashes.length + table.length);
+    }
+
+    private int add(byte[] bytes, int length, int hash) {
+        if (chunkUsed + 2 + length > CHUNK_BYTES) {
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = ByteBuffer.allocateDirect(CHUNK_BYTES);
+            chunks = grown;
+            chunkUsed = 0;
+        }
+        ByteBuffer chunk = chunks[chunks.length - 1];
+        chunk.putShort(chunkUsed, (short) length);
+        chunk.put(chunkUsed + 2, bytes, 0, length);
+        int id = count;
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            addresses = Arrays.copyOf(addresses, id * 2);
+        }
+        addresses[id] = (chunks.length - 1) << 20 | chunkUsed;
+        hashes[id] = hash;
+        chunkUsed += 2 + length;
+        count++;
+        return id;
+    }
+
+    private boolean equals(int id, byte[] bytes, int length) {
+        int address = addresses[id];
+        ByteBuffer chunk = chunks[address >>> 20];
+        int position = address & (CHUNK_BYTES - 1);
+        if ((chunk.getShort(position) & 0xFFFF) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chunk.get(position + 2 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        int[] grown = new int[table.length * 2];
+        int mask = grown.length - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = hashes[id] & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = id + 1;
+        }
+        table = grown;
+    }
+
+    private static int hash(byte[] bytes, int length) {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Blanda de höga bitarna nedåt, tabellen använder bara de låga
+        h = (h ^ (h >>> 16)) * 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,119 @@
+package game;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Antal poäng per poängvärde, för placeringar utan att gå igenom listan. Poäng i [0, capacity)
+// räknas i ett Fenwickträd (binärt indexerat träd) över värdet, så både "hur många har mer än x"
+// och "vilket värde har plats n" tar O(log capacity) oavsett hur många poäng som finns. Trädet
+// dubblas när en högre poäng kommer in, upp till MAX_CAPACITY. Poäng utanför (negativa eller
+// orimligt höga) räknas i en TreeMap; de är sällsynta, och frågor som rör dem kostar O(antal
+// sådana värden) i stället.
+final class RankHistogram {
+    private static final int INITIAL_CAPACITY = 1024;
+    static final int MAX_CAPACITY = 1 << 20;
+
+    // tree[i] är antalet poäng med värde i [i - (i & -i), i), index 1-baserat
+    private int[] tree = new int[INITIAL_CAPACITY + 1];
+    private int capacity = INITIAL_CAPACITY;
+    private int total = 0;
+    private int denseTotal = 0;
+    // Poäng utanför trädet, per värde
+    private final TreeMap<Integer, Integer> outliers = new TreeMap<>();
+    private int outliersAbove = 0;
+
+    synchronized void add(int score) {
+        total++;
+        if (score < 0 || score >= MAX_CAPACITY) {
+            outliers.merge(score, 1, Integer::sum);
+            if (score >= MAX_CAPACITY) {
+                outliersAbove++;
+            }
+            return;
+        }
+        while (score >= capacity) {
+            grow();
+        }
+        denseTotal++;
+        for (int i = score + 1; i <= capacity; i += i & -i) {
+            tree[i]++;
+        }
+    }
+
+    // Nya index i andra halvan täcker bara tomma värden, utom det sista som täcker allt
+    private void grow() {
+        int all = denseTotal;
+        tree = Arrays.copyOf(tree, capacity * 2 + 1);
+        capacity *= 2;
+        tree[capacity] = all;
+    }
+
+    synchronized int total() {
+        return total;
+    }
+
+    // Antal poäng som är strikt högre än score
+    synchronized int countAbove(int score) {
+        if (score < 0) {
+            return total - sum(outliers.headMap(score, true));
+        }
+        if (score >= MAX_CAPACITY) {
+            return sum(outliers.tailMap(score, false));
+        }
+        return denseTotal - atMost(Math.min(score, capacity - 1)) + outliersAbove;
+    }
+
+    // Värdet på plats position (1 = högst) i fallande ordning, och poäng med samma värde ligger
+    // på platserna countAbove(värde) + 1 ... countAbove(värde) + antalet. position måste vara i
+    // [1, total()].
+    synchronized int scoreAt(int position) {
+        if (position < 1 || position > total) {
+            throw new IndexOutOfBoundsException("plats " + position + " av " + total);
+        }
+        if (position <= outliersAbove) {
+            return walkOutliers(outliers.descendingMap(), position);
+        }
+        position -= outliersAbove;
+        if (position > denseTotal) {
+            return walkOutliers(outliers.headMap(0, false).descendingMap(), position - denseTotal);
+        }
+        // Plats i stigande ordning, och sedan det minsta värdet med så många poäng till och med sig
+        int remaining = denseTotal - position + 1;
+        int index = 0;
+        for (int step = Integer.highestOneBit(capacity); step > 0; step >>= 1) {
+            if (index + step <= capacity && tree[index + step] < remaining) {
+                index += step;
+                remaining -= tree[index];
+            }
+        }
+        return index;
+    }
+
+    // Antal poäng med värde <= score, för score i trädet
+    private int atMost(int score) {
+        int count = 0;
+        for (int i = score + 1; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    private static int sum(Map<Integer, Integer> counts) {
+        int sum = 0;
+        for (int n : counts.values()) {
+            sum += n;
+        }
+        return sum;
+    }
+
+    private static int walkOutliers(Map<Integer, Integer> descending, int position) {
+        for (Map.Entry<Integer, Integer> entry : descending.entrySet()) {
+            position -= entry.getValue();
+            if (position <= 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("plats utanför histogrammet");
+    }
+}
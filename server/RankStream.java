@@ -0,0 +1,284 @@
+package game;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Server-sent events med topplistan, så att klienter får nya placeringar utan att fråga.
+//   GET /api/leaderboard/stream[?window=daily|weekly|all] (och /leaderboard/stream)
+//   -> text/event-stream med en händelse per ny topplista i fönstret:
+//        id: <samma ETag som GET /api/leaderboard med samma fönster>
+//        event: top
+//        data: [{"playerName":...,"score":...,"date":...}, ...]
+// En ny prenumerant får den aktuella listan direkt, om inte Last-Event-ID redan är den.
+//
+// En utsändartråd väcks när ScoreIndex får en ny topplista, men skickar högst en gång per
+// minIntervalMillis; ändringar däremellan slås ihop till den senaste listan. Händelsen kodas en
+// gång och samma byte-array skrivs till alla prenumeranter. Varje prenumerant har en plats för
+// nästa händelse och skriver på writers-poolen; en långsam klient får bara den senaste listan
+// när den väl hinner ikapp och håller aldrig mer än en tråd. En klient vars skrivning stått still
+// i STALLED_WRITE_MILLIS tas bort ur utskicken.
+class RankStream {
+    static final long DEFAULT_MIN_INTERVAL_MILLIS = 250;
+    static final int MAX_SUBSCRIBERS = 20_000;
+    // Kommentarsrad som håller uppkopplingen vid liv genom proxyer och avslöjar döda klienter
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    private static final long STALLED_WRITE_MILLIS = 30_000;
+    private static final byte[] RETRY = "retry: 2000\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final Event HEARTBEAT = new Event(-1, ":\n\n".getBytes(StandardCharsets.UTF_8));
+
+    private static final class Event {
+        final long version;
+        final byte[] bytes;
+
+        Event(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ScoreIndex index;
+    private final ScoreIndex.Window window;
+    private final ExecutorService writers;
+    private final long minIntervalNanos;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private final Thread broadcaster;
+    private volatile boolean running = false;
+    // Senast kodade händelse, så att nya prenumeranter inte kodar listan en gång till
+    private volatile Event latest = null;
+
+    // Mätvärden
+    final LongAdder broadcasts = new LongAdder();
+    final LongAdder eventsWritten = new LongAdder();
+    final LongAdder eventsCoalesced = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+
+    RankStream(ScoreIndex index, ScoreIndex.Window window, ExecutorService writers, long minIntervalMillis) {
+        this.index = index;
+        this.window = window;
+        this.writers = writers;
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        broadcaster = new Thread(this::broadcastLoop, "rank-stream-" + window.key);
+        broadcaster.setDaemon(true);
+        index.onTopChanged(() -> {
+            if (changed.compareAndSet(false, true)) {
+                LockSupport.unpark(broadcaster);
+            }
+        });
+    }
+
+    void start() {
+        running = true;
+        broadcaster.start();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(broadcaster);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    // Körs på förfrågans tråd. Utbytet lämnas öppet; det stängs när klienten försvinner.
+    void subscribe(HttpExchange exchange) throws IOException {
+        if (!running || subscribers.size() >= MAX_SUBSCRIBERS) {
+            exchange.getResponseHeaders().set("Retry-After", "10");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(RETRY);
+            out.flush();
+        } catch (IOException e) {
+            exchange.close();
+            return;
+        }
+
+        Subscriber subscriber = new Subscriber(exchange, out);
+        subscribers.add(subscriber);
+        // Läses efter add, så en lista som publiceras under tiden når klienten på något av sätten
+        ScoreIndex.TopList top = index.current(window);
+        if (!top.etag.equals(exchange.getRequestHeaders().getFirst("Last-Event-ID"))) {
+            subscriber.offer(eventFor(top));
+        } else {
+            subscriber.lastWritten = top.version;
+        }
+    }
+
+    private Event eventFor(ScoreIndex.TopList top) {
+        Event event = latest;
+        if (event != null && event.version == top.version) {
+            return event;
+        }
+        StringBuilder sb = new StringBuilder(top.json.length + 64);
+        sb.append("id: ").append(top.etag).append("\nevent: top\ndata: ");
+        byte[] head = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[head.length + top.json.length + 2];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        System.arraycopy(top.json, 0, bytes, head.length, top.json.length);
+        bytes[bytes.length - 2] = '\n';
+        bytes[bytes.length - 1] = '\n';
+        event = new Event(top.version, bytes);
+        latest = event;
+        return event;
+    }
+
+    private void broadcastLoop() {
+        long sentVersion = index.current(window).version;
+        long lastSent = System.nanoTime() - minIntervalNanos;
+        long lastHeartbeat = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            long heartbeatDue = lastHeartbeat + TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MILLIS);
+            if (changed.get()) {
+                if (now - lastSent < minIntervalNanos) {
+                    // Fler poäng som kommer in nu hamnar i samma utskick
+                    LockSupport.parkNanos(lastSent + minIntervalNanos - now);
+                    continue;
+                }
+                changed.set(false);
+                ScoreIndex.TopList top = index.current(window);
+                if (top.version != sentVersion) {
+                    Event event = eventFor(top);
+                    for (Subscriber subscriber : subscribers) {
+                        subscriber.offer(event);
+                    }
+                    sentVersion = top.version;
+                    lastSent = now;
+                    broadcasts.increment();
+                }
+            } else if (now - heartbeatDue >= 0) {
+                // Läsningen tar bort timmar som blivit för gamla, och väcker oss då igen
+                index.current(window);
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.heartbeat(now);
+                }
+                lastHeartbeat = now;
+            } else {
+                LockSupport.parkNanos(heartbeatDue - now);
+            }
+        }
+    }
+
+    private final class Subscriber {
+        final HttpExchange exchange;
+        final OutputStream out;
+        // Nästa händelse att skriva; en ny ersätter en som inte hunnit skrivas
+        final AtomicReference<Event> pending = new AtomicReference<>();
+        final AtomicBoolean writing = new AtomicBoolean();
+        // Version på senast skrivna listan, så att en äldre aldrig skrivs efter en nyare
+        volatile long lastWritten = -1;
+        // System.nanoTime() när pågående skrivning började, 0 när ingen pågår
+        volatile long writeStarted = 0;
+        volatile boolean closed = false;
+
+        Subscriber(HttpExchange exchange, OutputStream out) {
+            this.exchange = exchange;
+            this.out = out;
+        }
+
+        void offer(Event event) {
+            Event current;
+            do {
+                current = pending.get();
+                if (event.version <= lastWritten || current != null && current.version >= event.version) {
+                    return;
+                }
+            } while (!pending.compareAndSet(current, event));
+            if (current != null && current != HEARTBEAT) {
+                eventsCoalesced.increment();
+            }
+            schedule();
+        }
+
+        void heartbeat(long now) {
+            long started = writeStarted;
+            if (started != 0 && now - started > TimeUnit.MILLISECONDS.toNanos(STALLED_WRITE_MILLIS)) {
+                close();
+                return;
+            }
+            if (pending.compareAndSet(null, HEARTBEAT)) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (writing.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    close();
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    Event event = pending.getAndSet(null);
+                    if (event == null) {
+                        writing.set(false);
+                        // En händelse kan ha lagts in mellan getAndSet och set
+                        if (pending.get() == null || !writing.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    if (closed || event != HEARTBEAT && event.version <= lastWritten) {
+                        continue;
+                    }
+                    writeStarted = System.nanoTime();
+                    out.write(event.bytes);
+                    out.flush();
+                    writeStarted = 0;
+                    if (event != HEARTBEAT) {
+                        lastWritten = event.version;
+                        eventsWritten.increment();
+                    }
+                }
+            } catch (IOException e) {
+                // Klienten har gått
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (subscribers.remove(this)) {
+                dropped.increment();
+            }
+            // exchange.close() skriver den avslutande chunken och väntar bakom en hängande
+            // skrivning tills TCP ger upp, så det får göras på en egen tråd
+            try {
+                writers.execute(exchange::close);
+            } catch (RejectedExecutionException e) {
+                exchange.close();
+            }
+        }
+    }
+}
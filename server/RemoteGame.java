@@ -0,0 +1,199 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Klientens kopia av en session på en GameSessionServer, uppbyggd av FULL- och DELTA-ramar.
+// Den kör ingen egen fysik, allt kommer från servern; mellan ramarna flyttas bara plattformarna
+// nedåt lika många steg som servern har tagit.
+public class RemoteGame {
+    private int sessionId = -1;
+    private byte role;
+    private long tick;
+    private int playerX, playerY, score;
+    private boolean gameOver;
+    private int platformCount;
+    private int[] platformX = new int[16];
+    private int[] platformY = new int[16];
+    private boolean[] platformHit = new boolean[16];
+    // Sant efter en FULL; en DELTA innan dess går inte att tillämpa
+    private boolean synced = false;
+    private byte lastError = 0;
+    private long fullFrames, deltaFrames;
+
+    // Tillämpar en ram (typbyte och innehåll, utan längd). Returnerar ramens typ.
+    public byte apply(ByteBuffer frame) {
+        byte type = frame.get();
+        switch (type) {
+            case SessionProtocol.WELCOME:
+                sessionId = SessionProtocol.getVarint(frame);
+                role = frame.get();
+                break;
+            case SessionProtocol.FULL:
+                applyFull(frame);
+                break;
+            case SessionProtocol.DELTA:
+                if (!synced) {
+                    throw new IllegalStateException("DELTA före första FULL");
+                }
+                applyDelta(frame);
+                break;
+            case SessionProtocol.ERROR:
+                lastError = frame.get();
+                break;
+            default:
+                throw new IllegalArgumentException("okänd ramtyp " + type);
+        }
+        return type;
+    }
+
+    private void applyFull(ByteBuffer frame) {
+        tick = SessionProtocol.getVarint(frame) & 0xFFFFFFFFL;
+        playerX = SessionProtocol.getZigzag(frame);
+        playerY = SessionProtocol.getZigzag(frame);
+        score = SessionProtocol.getVarint(frame);
+        gameOver = frame.get() != 0;
+        int count = SessionProtocol.getVarint(frame);
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            platformX[i] = SessionProtocol.getZigzag(frame);
+            platformY[i] = SessionProtocol.getZigzag(frame);
+            platformHit[i] = frame.get() != 0;
+        }
+        platformCount = count;
+        synced = true;
+        fullFrames++;
+    }
+
+    private void applyDelta(ByteBuffer frame) {
+        int fields = frame.get();
+        int steps = SessionProtocol.getVarint(frame);
+        tick += steps;
+        if ((fields & SessionProtocol.F_PLAYER_X) != 0) {
+            playerX += SessionProtocol.getZigzag(frame);
+        }
+        if ((fields & SessionProtocol.F_PLAYER_Y) != 0) {
+            playerY += SessionProtocol.getZigzag(frame);
+        }
+        if ((fields & SessionProtocol.F_SCORE) != 0) {
+            score += SessionProtocol.getVarint(frame);
+        }
+        for (int i = 0; i < platformCount; i++) {
+            platformY[i] += steps;
+        }
+        if ((fields & SessionProtocol.F_PLATFORMS) != 0) {
+            int removed = SessionProtocol.getVarint(frame);
+            int added = SessionProtocol.getVarint(frame);
+            if (removed > platformCount) {
+                throw new IllegalArgumentException("fler plattformar borttagna än som finns");
+            }
+            int kept = platformCount - removed;
+            System.arraycopy(platformX, removed, platformX, 0, kept);
+            System.arraycopy(platformY, removed, platformY, 0, kept);
+            System.arraycopy(platformHit, removed, platformHit, 0, kept);
+            ensureCapacity(kept + added);
+            for (int i = kept; i < kept + added; i++) {
+                platformX[i] = SessionProtocol.getZigzag(frame);
+                platformY[i] = SessionProtocol.getZigzag(frame);
+                platformHit[i] = frame.get() != 0;
+            }
+            platformCount = kept + added;
+            int hits = SessionProtocol.getVarint(frame);
+            for (int i = 0; i < hits; i++) {
+                int index = SessionProtocol.getVarint(frame);
+                if (index >= platformCount) {
+                    throw new IllegalArgumentException("träff på plattform som inte finns");
+                }
+                platformHit[index] = true;
+            }
+        }
+        gameOver = (fields & SessionProtocol.F_GAME_OVER) != 0;
+        deltaFrames++;
+    }
+
+    private void ensureCapacity(int count) {
+        if (platformX.length < count) {
+            int capacity = Math.max(count, platformX.length * 2);
+            platformX = Arrays.copyOf(platformX, capacity);
+            platformY = Arrays.copyOf(platformY, capacity);
+            platformHit = Arrays.copyOf(platformHit, capacity);
+        }
+    }
+
+    // Sant om kopian visar samma läge som snapshot
+    public boolean matches(GameSnapshot snapshot) {
+        if (tick != snapshot.getTick() || playerX != snapshot.getPlayerX() || playerY != snapshot.getPlayerY()
+                || score != snapshot.getScore() || gameOver != snapshot.isGameOver()
+                || platformCount != snapshot.getPlatformCount()) {
+            return false;
+        }
+        for (int i = 0; i < platformCount; i++) {
+            if (platformX[i] != snapshot.getPlatformX(i) || platformY[i] != snapshot.getPlatformY(i)
+                    || platformHit[i] != snapshot.isPlatformHit(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public boolean isPlayer() {
+        return role == SessionProtocol.ROLE_PLAYER;
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int getPlayerX() {
+        return playerX;
+    }
+
+    public int getPlayerY() {
+        return playerY;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public int getPlatformCount() {
+        return platformCount;
+    }
+
+    public int getPlatformX(int i) {
+        return platformX[i];
+    }
+
+    public int getPlatformY(int i) {
+        return platformY[i];
+    }
+
+    public boolean isPlatformHit(int i) {
+        return platformHit[i];
+    }
+
+    // Senaste felkoden från servern, 0 om inget fel har kommit
+    public byte getLastError() {
+        return lastError;
+    }
+
+    public long getFullFrames() {
+        return fullFrames;
+    }
+
+    public long getDeltaFrames() {
+        return deltaFrames;
+    }
+}
@@ -0,0 +1,346 @@
+package game;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Minnesindex för alla inskickade poäng. Poängen ligger i en ScoreStore, som poster utanför heapen
+// i insättningsordning; ordningen högst först (äldst först vid lika) ges av en RankHistogram över
+// värdena och ScoreStores poster per värde, så ingen struktur har ett objekt per poäng. Topplistan och dess
+// JSON hålls färdigbyggda och byggs bara om när en ny poäng faktiskt tar sig in på den, så de
+// vanligaste läsningarna kostar bara att skicka en byte-array. Varje ny topplista får en ny ETag
+// så att klienter med en aktuell kopia kan få 304 i stället för hela listan.
+//
+// Utöver topplistan för all tid finns listor för det senaste dygnet och den senaste veckan. De
+// byggs av en ring med en liten topplista per timme (de senaste 168 timmarna): en ny poäng läggs
+// i sin timmes lista och direkt i fönstrens listor om den tar sig in där, och när en timme blir för
+// gammal töms dess plats i ringen och fönstren byggs om av högst 168 * TOP_COUNT poäng. Ingen
+// läsning eller utgång går igenom alla poäng, och alla tre listorna läses på O(TOP_COUNT).
+//
+// Placeringen för en godtycklig poäng räknas i histogrammet, så "plats för poäng x" och "poängen
+// runt plats n" tar O(log n) även med miljontals poäng. Placeringar finns bara för all tid.
+class ScoreIndex {
+    static final int TOP_COUNT = 10;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    // Början på alla ETag som servern ger ut (även LeaderboardServers jsonbin-poster). Startiden
+    // ingår så att en omstartad server inte återanvänder en gammal tagg.
+    static final String ETAG_PREFIX = "\"" + Long.toString(System.currentTimeMillis(), 36) + "-";
+
+    enum Window {
+        DAILY("daily", 24),
+        WEEKLY("weekly", 24 * 7),
+        ALL_TIME("all", 0);
+
+        final String key;
+        // Antal hela timmar i fönstret, 0 för all tid
+        final int hours;
+
+        Window(String key, int hours) {
+            this.key = key;
+            this.hours = hours;
+        }
+
+        // Värdet på ?window=, null om det inte finns något sådant fönster; utan värde all tid
+        static Window parse(String key) {
+            if (key == null || key.isEmpty()) {
+                return ALL_TIME;
+            }
+            for (Window window : values()) {
+                if (window.key.equals(key)) {
+                    return window;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final int BUCKET_COUNT = Window.WEEKLY.hours;
+
+    static final class StoredScore implements Comparable<StoredScore> {
+        final String playerName;
+        final int score;
+        final long time;
+        final long sequence;
+
+        StoredScore(String playerName, int score, long time, long sequence) {
+            this.playerName = playerName;
+            this.score = score;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(StoredScore other) {
+            if (score != other.score) {
+                return score > other.score ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final ScoreStore store = new ScoreStore();
+    private final RankHistogram ranks = new RankHistogram();
+    // Lista, JSON, binär form och ETag publiceras tillsammans så att en läsare aldrig ser en blandning
+    static final class TopList {
+        final List<StoredScore> scores;
+        final byte[] json;
+        // Samma lista som ScoreBinary, utan datum
+        final byte[] binary;
+        final String etag;
+        // Ökar med varje ny topplista
+        final long version;
+
+        TopList(List<StoredScore> scores, byte[] json, byte[] binary, String etag, long version) {
+            this.scores = scores;
+            this.json = json;
+            this.binary = binary;
+            this.etag = etag;
+            this.version = version;
+        }
+    }
+
+    private volatile TopList top = emptyList(Window.ALL_TIME);
+    private long topVersion = 0;
+    // Anropas på den tråd som la till poängen, efter att en ny topplista (i något fönster) har
+    // publicerats
+    private final CopyOnWriteArrayList<Runnable> topListeners = new CopyOnWriteArrayList<>();
+
+    // Timringen och fönstrens listor, skyddade av buckets. Platsen för timme h är h % BUCKET_COUNT.
+    private final TopK<StoredScore>[] buckets;
+    private final TopK<StoredScore> dailyTable = new TopK<>(TOP_COUNT);
+    private final TopK<StoredScore> weeklyTable = new TopK<>(TOP_COUNT);
+    private long windowVersion = 0;
+    // Senaste timmen i ringen; läses utan lås för att se om ringen behöver roteras
+    private volatile long newestHour;
+    private volatile TopList daily = emptyList(Window.DAILY);
+    private volatile TopList weekly = emptyList(Window.WEEKLY);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ScoreIndex() {
+        buckets = new TopK[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new TopK<>(TOP_COUNT);
+        }
+        newestHour = Math.floorDiv(System.currentTimeMillis(), HOUR_MILLIS);
+    }
+
+    void add(String playerName, int score, long time) {
+        StoredScore stored = new StoredScore(playerName, score, time, store.append(playerName, score, time));
+        ranks.add(score);
+
+        // Den tionde poängen kan bara bli högre, så en poäng som inte slår den gamla listan
+        // slår inte heller den nya
+        List<StoredScore> current = top.scores;
+        if (current.size() < TOP_COUNT || stored.compareTo(current.get(current.size() - 1)) < 0) {
+            refreshTop();
+        }
+        addToWindows(stored);
+    }
+
+    int size() {
+        return ranks.total();
+    }
+
+    // Alla poäng i insättningsordning, för ScoreLog; posterna ändras aldrig efter att de lagts till
+    ScoreStore store() {
+        return store;
+    }
+
+    // Placeringen poängen skulle ha: 1 + antalet poäng som är strikt högre, så lika poäng delar plats
+    int rankOf(int score) {
+        return ranks.countAbove(score) + 1;
+    }
+
+    // Poängen på platserna from, from + 1, ... (högst count stycken) i topplistans ordning. Värdet
+    // på varje plats hittas i histogrammet, och poängen med det värdet direkt i ScoreStore.
+    List<StoredScore> around(int from, int count) {
+        ArrayList<StoredScore> list = new ArrayList<>(Math.max(0, count));
+        int position = from;
+        while (list.size() < count && position >= 1 && position <= ranks.total()) {
+            int score = ranks.scoreAt(position);
+            int added = store.collect(score, position - 1 - ranks.countAbove(score), count - list.size(), list);
+            if (added == 0) {
+                break;
+            }
+            position += added;
+        }
+        return list;
+    }
+
+    // Platserna offset + 1 ... offset + limit i fönstrets lista. För all tid hittas sidan i
+    // histogrammet på O(log n + limit) oavsett offset; dygnet och veckan har bara sina TOP_COUNT bästa.
+    List<StoredScore> page(Window window, int offset, int limit) {
+        if (window == Window.ALL_TIME) {
+            return offset >= size() ? List.of() : around(offset + 1, limit);
+        }
+        List<StoredScore> scores = current(window).scores;
+        int from = Math.min(offset, scores.size());
+        return scores.subList(from, from + Math.min(limit, scores.size() - from));
+    }
+
+    // Antal poäng som page() kan ge för fönstret
+    int size(Window window) {
+        return window == Window.ALL_TIME ? size() : current(window).scores.size();
+    }
+
+    List<StoredScore> top() {
+        return top.scores;
+    }
+
+    // Lyssnaren ska vara snabb, t.ex. bara väcka en annan tråd
+    void onTopChanged(Runnable listener) {
+        topListeners.add(listener);
+    }
+
+    // Topplistan för all tid med sin JSON ([{"playerName":...,"score":...,"date":...}, ...]) och ETag
+    TopList current() {
+        return top;
+    }
+
+    TopList current(Window window) {
+        return current(window, System.currentTimeMillis());
+    }
+
+    // Listan för window som den ser ut vid now; timmar som hunnit bli för gamla tas bort först
+    TopList current(Window window, long now) {
+        if (window == Window.ALL_TIME) {
+            return top;
+        }
+        long hour = Math.floorDiv(now, HOUR_MILLIS);
+        if (hour > newestHour) {
+            boolean changed;
+            synchronized (buckets) {
+                changed = rotateTo(hour);
+                if (changed) {
+                    publishWindows();
+                }
+            }
+            if (changed) {
+                fireTopChanged();
+            }
+        }
+        return window == Window.DAILY ? daily : weekly;
+    }
+
+    private void addToWindows(StoredScore stored) {
+        long hour = Math.floorDiv(stored.time, HOUR_MILLIS);
+        boolean changed;
+        synchronized (buckets) {
+            changed = rotateTo(Math.max(hour, Math.floorDiv(System.currentTimeMillis(), HOUR_MILLIS)));
+            if (hour <= newestHour - BUCKET_COUNT || !bucket(hour).offer(stored.score, stored)) {
+                // För gammal för veckan, eller inte bland timmens bästa och då inte heller fönstrets
+                if (changed) {
+                    publishWindows();
+                }
+            } else {
+                if (hour > newestHour - Window.DAILY.hours) {
+                    changed |= dailyTable.offer(stored.score, stored);
+                }
+                changed |= weeklyTable.offer(stored.score, stored);
+                if (changed) {
+                    publishWindows();
+                }
+            }
+        }
+        if (changed) {
+            fireTopChanged();
+        }
+    }
+
+    private TopK<StoredScore> bucket(long hour) {
+        return buckets[(int) Math.floorMod(hour, (long) BUCKET_COUNT)];
+    }
+
+    // Flyttar ringen fram till hour och tömmer timmarna som faller ur veckan. Fönstren byggs om av
+    // de kvarvarande timmarna; returnerar true om någon av dem ändrades.
+    private boolean rotateTo(long hour) {
+        if (hour <= newestHour) {
+            return false;
+        }
+        long steps = Math.min(hour - newestHour, BUCKET_COUNT);
+        for (long h = hour - steps + 1; h <= hour; h++) {
+            bucket(h).clear();
+        }
+        newestHour = hour;
+        return rebuild(dailyTable, Window.DAILY.hours) | rebuild(weeklyTable, Window.WEEKLY.hours);
+    }
+
+    // Timmarna gås igenom från äldst till nyast, så lika poäng hamnar i samma ordning som förut
+    private boolean rebuild(TopK<StoredScore> table, int hours) {
+        ArrayList<StoredScore> before = table.toList();
+        table.clear();
+        for (long h = newestHour - hours + 1; h <= newestHour; h++) {
+            TopK<StoredScore> bucket = bucket(h);
+            for (int i = 0; i < bucket.size(); i++) {
+                table.offer(bucket.scoreAt(i), bucket.valueAt(i));
+            }
+        }
+        return !table.toList().equals(before);
+    }
+
+    private void publishWindows() {
+        windowVersion++;
+        if (!daily.scores.equals(dailyTable.toList())) {
+            daily = newList(Window.DAILY, dailyTable.toList(), windowVersion);
+        }
+        if (!weekly.scores.equals(weeklyTable.toList())) {
+            weekly = newList(Window.WEEKLY, weeklyTable.toList(), windowVersion);
+        }
+    }
+
+    private void fireTopChanged() {
+        for (Runnable listener : topListeners) {
+            listener.run();
+        }
+    }
+
+    private TopList emptyList(Window window) {
+        return newList(window, List.of(), 0);
+    }
+
+    private TopList newList(Window window, List<StoredScore> list, long version) {
+        String etag = ETAG_PREFIX + (window == Window.ALL_TIME ? "" : window.key + "-") + version + "\"";
+        return new TopList(List.copyOf(list), toJson(list), toBinary(list), etag, version);
+    }
+
+    private synchronized void refreshTop() {
+        List<StoredScore> list = around(1, TOP_COUNT);
+        topVersion++;
+        top = newList(Window.ALL_TIME, list, topVersion);
+        fireTopChanged();
+    }
+
+    static byte[] toBinary(List<StoredScore> list) {
+        ScoreBinary.Encoder encoder = new ScoreBinary.Encoder(list.size());
+        for (StoredScore s : list) {
+            encoder.add(s.playerName, s.score);
+        }
+        return encoder.toByteArray();
+    }
+
+    static byte[] toJson(List<StoredScore> list) {
+        return toJson(list, 0);
+    }
+
+    // Med firstRank > 0 får varje post också "rank", räknat från firstRank
+    static byte[] toJson(List<StoredScore> list, int firstRank) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < list.size(); i++) {
+            StoredScore s = list.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            ScoreJson.appendEntry(sb, "playerName", s.playerName, s.score);
+            // Lägg till datum som Node-servern gjorde
+            sb.setLength(sb.length() - 1);
+            sb.append(",\"date\":\"").append(Instant.ofEpochMilli(s.time)).append('"');
+            if (firstRank > 0) {
+                sb.append(",\"rank\":").append(firstRank + i);
+            }
+            sb.append('}');
+        }
+        return sb.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
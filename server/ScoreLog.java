@@ -0,0 +1,525 @@
+package game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Skrivlogg (write-ahead log) för alla poäng som ScoreIndex tar emot, så att de finns kvar efter
+// en omstart. Filer i katalogen:
+//   scores-<generation>.wal   loggsegment: huvud och sedan en post per poäng
+//   scores.snap               ögonblicksbild av alla poäng i loggsegment äldre än dess generation
+//
+// append() lägger poängen i en kö och returnerar direkt. En skrivtråd samlar ihop det som väntar
+// och gör en enda fsync för hela gruppen (group commit): den skriver så fort förra fsync är minst
+// commitIntervalMillis gammal eller maxBatch poster väntar (och direkt om förra gruppen bara var en
+// post, så att en ensam klient inte väntar i onödan). Först efter fsync läggs poängen in i
+// ScoreIndex och framtiden blir klar, så en poäng som har fått svar syns alltid efter en krasch
+// och ingen ser en poäng som inte är sparad.
+//
+// Efter snapshotEvery poster byter skrivtråden till ett nytt segment och noterar hur många poäng
+// ScoreIndex har; posterna i dess ScoreStore ändras aldrig, så en egen tråd kan sedan skriva just
+// de poängen till en temporär fil, byta namn på den och ta bort segmenten den täcker. Omstarten
+// läser alltså en ögonblicksbild och högst ett par segment. Varje post har en CRC, så en post som
+// bara delvis hann skrivas före en krasch upptäcks och allt efter den ignoreras.
+class ScoreLog implements Closeable {
+    static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 2;
+    static final int DEFAULT_MAX_BATCH = 512;
+    static final int DEFAULT_SNAPSHOT_EVERY = 100_000;
+    // Poäng som får vänta på att skrivas innan append() säger nej
+    static final int QUEUE_CAPACITY = 64 * 1024;
+    static final int MAX_NAME_BYTES = 1024;
+
+    private static final int SEGMENT_MAGIC = 0x534C574C;  // "SLWL"
+    private static final int SNAPSHOT_MAGIC = 0x534C534E; // "SLSN"
+    private static final int FORMAT_VERSION = 1;
+    // magic(4) version(4) generation(8)
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    // crc(4) längd(2), och sedan längd byte: poäng(4) tid(8) namn
+    private static final int RECORD_HEADER_SIZE = 6;
+    private static final int RECORD_FIXED_SIZE = 12;
+    private static final String SEGMENT_PREFIX = "scores-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final class Pending {
+        final byte[] name;
+        final int score;
+        final long time;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(byte[] name, int score, long time) {
+            this.name = name;
+            this.score = score;
+            this.time = time;
+        }
+    }
+
+    private final Path directory;
+    private final Path snapshotPath;
+    private final ScoreIndex index;
+    private final long commitIntervalNanos;
+    private final int maxBatch;
+    private final int snapshotEvery;
+    private final ArrayBlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile boolean running = true;
+    // Sätts om en skrivning eller fsync har misslyckats; sedan vet vi inte vad som finns på disken
+    private volatile IOException failure = null;
+
+    // Skrivtrådens egna
+    private FileChannel segment;
+    private long generation;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private final ArrayList<Pending> batch = new ArrayList<>();
+    private long recordsSinceSnapshot = 0;
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+
+    // Mätvärden
+    final LatencyHistogram fsyncTime = new LatencyHistogram();
+    final LatencyHistogram batchSize = new LatencyHistogram();
+    final LongAdder records = new LongAdder();
+    final LongAdder snapshots = new LongAdder();
+    private int recoveredFromSnapshot, recoveredFromLog;
+    private long recoveryNanos;
+
+    ScoreLog(Path directory, ScoreIndex index) throws IOException {
+        this(directory, index, DEFAULT_COMMIT_INTERVAL_MILLIS, DEFAULT_MAX_BATCH, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    ScoreLog(Path directory, ScoreIndex index, long commitIntervalMillis, int maxBatch, int snapshotEvery)
+            throws IOException {
+        this.directory = directory;
+        this.snapshotPath = directory.resolve("scores.snap");
+        this.index = index;
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+        this.maxBatch = maxBatch;
+        this.snapshotEvery = snapshotEvery;
+        Files.createDirectories(directory);
+        recover();
+        writer = new Thread(this::writeLoop, "score-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Blir klar när poängen är sparad på disk och tillagd i ScoreIndex, eller misslyckas om
+    // loggen inte kan skriva eller kön är full
+    CompletableFuture<Void> append(String name, int score, long time) {
+        if (failure != null) {
+            return CompletableFuture.failedFuture(failure);
+        }
+        if (!running) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("loggen är stängd"));
+        }
+        Pending pending = new Pending(truncatedUtf8(name), score, time);
+        if (!queue.offer(pending)) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("för många poäng i kö"));
+        }
+        return pending.done;
+    }
+
+    // Väntar tills allt i kön är skrivet, och stänger sedan segmentet
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Det som hann läggas i kön samtidigt som running sattes
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(new RejectedExecutionException("loggen är stängd"));
+        }
+        segment.close();
+    }
+
+    // ---- Omstart ----
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        long snapshotGeneration = loadSnapshot();
+        TreeMap<Long, Path> segments = segments();
+        long last = snapshotGeneration;
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            if (entry.getKey() < snapshotGeneration) {
+                // Täcks redan av ögonblicksbilden; blev kvar om vi kraschade innan de togs bort
+                Files.deleteIfExists(entry.getValue());
+                continue;
+            }
+            recoveredFromLog += replaySegment(entry.getValue(), entry.getKey());
+            last = Math.max(last, entry.getKey());
+        }
+        // Alltid ett nytt segment efter omstart, så att en trasig svans i det gamla aldrig
+        // behöver skrivas över
+        openSegment(last + 1);
+        recoveryNanos = System.nanoTime() - start;
+        if (recoveredFromSnapshot + recoveredFromLog > 0) {
+            System.out.printf("Återställde %d poäng (%d från ögonblicksbild, %d från loggen) på %d ms%n",
+                    recoveredFromSnapshot + recoveredFromLog, recoveredFromSnapshot, recoveredFromLog,
+                    TimeUnit.NANOSECONDS.toMillis(recoveryNanos));
+        }
+    }
+
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    System.out.println("Hoppar över okänd fil " + file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private long loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return 0;
+        }
+        // Kontrollsumman kontrolleras innan något läggs in, utan att hålla alla poäng i minnet
+        // under tiden; filen läses en gång till när den visat sig hel
+        verifySnapshotChecksum();
+        long snapshotGeneration;
+        long count;
+        try (InputStream file = Files.newInputStream(snapshotPath);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 64 * 1024))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("okänt format");
+            }
+            snapshotGeneration = in.readLong();
+            count = in.readLong();
+            byte[] name = new byte[MAX_NAME_BYTES];
+            // Filen är i insättningsordning, så lika poäng får samma inbördes ordning som före omstarten
+            for (long i = 0; i < count; i++) {
+                int score = in.readInt();
+                long time = in.readLong();
+                int length = in.readUnsignedShort();
+                if (length > MAX_NAME_BYTES) {
+                    throw new IOException("för långt namn i ögonblicksbilden");
+                }
+                in.readFully(name, 0, length);
+                index.add(new String(name, 0, length, StandardCharsets.UTF_8), score, time);
+            }
+        } catch (EOFException e) {
+            throw new IOException("ögonblicksbilden " + snapshotPath + " är avkortad", e);
+        }
+        recoveredFromSnapshot = (int) count;
+        return snapshotGeneration;
+    }
+
+    // Kontrollsumman ligger sist och täcker allt före sig
+    private void verifySnapshotChecksum() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            long checked = channel.size() - 4;
+            if (checked < 0) {
+                throw new IOException("ögonblicksbilden " + snapshotPath + " är avkortad");
+            }
+            CRC32 checksum = new CRC32();
+            ByteBuffer data = ByteBuffer.allocateDirect(256 * 1024);
+            long position = 0;
+            while (position < checked) {
+                data.clear();
+                data.limit((int) Math.min(data.capacity(), checked - position));
+                int read = channel.read(data, position);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                data.flip();
+                checksum.update(data);
+                position += read;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            while (trailer.hasRemaining() && channel.read(trailer, checked + trailer.position()) > 0) {
+                // Läser tills de fyra byten är inne
+            }
+            if (trailer.hasRemaining() || trailer.getInt(0) != (int) checksum.getValue()) {
+                throw new IOException("fel kontrollsumma i " + snapshotPath);
+            }
+        }
+    }
+
+    // Spelar upp giltiga poster fram till den första tomma eller trasiga
+    private int replaySegment(Path file, long expectedGeneration) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (data.limit() < SEGMENT_HEADER_SIZE || data.getInt(0) != SEGMENT_MAGIC
+                || data.getInt(4) != FORMAT_VERSION || data.getLong(8) != expectedGeneration) {
+            System.out.println("Hoppar över skadat loggsegment " + file);
+            return 0;
+        }
+        int count = 0;
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= data.limit()) {
+            int length = data.getShort(offset + 4) & 0xFFFF;
+            int end = offset + RECORD_HEADER_SIZE + length;
+            if (length < RECORD_FIXED_SIZE || end > data.limit()
+                    || data.getInt(offset) != checksum(data, offset + 4, end)) {
+                System.out.println("Loggsegment " + file + " slutar med en ofullständig post vid byte " + offset);
+                break;
+            }
+            int score = data.getInt(offset + 6);
+            long time = data.getLong(offset + 10);
+            byte[] name = new byte[length - RECORD_FIXED_SIZE];
+            data.get(offset + 18, name);
+            index.add(new String(name, StandardCharsets.UTF_8), score, time);
+            count++;
+            offset = end;
+        }
+        return count;
+    }
+
+    // ---- Skrivtråden ----
+
+    private void openSegment(long newGeneration) throws IOException {
+        Path path = directory.resolve(SEGMENT_PREFIX + newGeneration + SEGMENT_SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(SEGMENT_MAGIC).putInt(FORMAT_VERSION).putLong(newGeneration).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        // Katalogposten för den nya filen måste också vara sparad
+        forceDirectory();
+        if (segment != null) {
+            segment.close();
+        }
+        segment = channel;
+        generation = newGeneration;
+    }
+
+    private void writeLoop() {
+        long lastCommit = 0;
+        int lastBatch = 0;
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Vänta in fler bara om förra fsync var nyss och förra gruppen visade att flera
+                // skickar samtidigt; en ensam klient ska inte vänta på någon som aldrig kommer
+                boolean gather = lastBatch > 1;
+                long deadline = lastCommit + commitIntervalNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || !gather || wait <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                lastCommit = System.nanoTime();
+                lastBatch = batch.size();
+                commit();
+            } catch (InterruptedException e) {
+                // Bara close() stänger tråden, och den väntar på att kön töms
+            } catch (IOException e) {
+                System.out.println("Kunde inte skriva poängloggen: " + e);
+                failure = e;
+                failAll(e);
+            }
+        }
+    }
+
+    private void commit() throws IOException {
+        if (failure != null) {
+            failAll(failure);
+            return;
+        }
+        buffer.clear();
+        for (Pending pending : batch) {
+            int length = RECORD_FIXED_SIZE + pending.name.length;
+            if (buffer.remaining() < RECORD_HEADER_SIZE + length) {
+                buffer = growBuffer(buffer, RECORD_HEADER_SIZE + length);
+            }
+            int offset = buffer.position();
+            buffer.putInt(0);
+            buffer.putShort((short) length);
+            buffer.putInt(pending.score);
+            buffer.putLong(pending.time);
+            buffer.put(pending.name);
+            buffer.putInt(offset, checksum(buffer, offset + 4, buffer.position()));
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        long start = System.nanoTime();
+        segment.force(false);
+        fsyncTime.record(System.nanoTime() - start);
+        batchSize.record(batch.size());
+
+        for (Pending pending : batch) {
+            index.add(new String(pending.name, StandardCharsets.UTF_8), pending.score, pending.time);
+        }
+        for (Pending pending : batch) {
+            pending.done.complete(null);
+        }
+        records.add(batch.size());
+        recordsSinceSnapshot += batch.size();
+        batch.clear();
+
+        if (recordsSinceSnapshot >= snapshotEvery && snapshotRunning.compareAndSet(false, true)) {
+            startSnapshot();
+        }
+    }
+
+    private ByteBuffer growBuffer(ByteBuffer old, int needed) {
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(old.capacity() * 2, old.position() + needed));
+        old.flip();
+        grown.put(old);
+        return grown;
+    }
+
+    private void failAll(IOException e) {
+        for (Pending pending : batch) {
+            pending.done.completeExceptionally(e);
+        }
+        batch.clear();
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(e);
+        }
+    }
+
+    // Körs på skrivtråden mellan två grupper, så att de count första posterna i ScoreStore är precis
+    // de poäng som finns i segmenten före det nya
+    private void startSnapshot() throws IOException {
+        ScoreStore scores = index.store();
+        int count = scores.size();
+        openSegment(generation + 1);
+        long covered = generation;
+        recordsSinceSnapshot = 0;
+        Thread thread = new Thread(() -> {
+            try {
+                writeSnapshot(scores, count, covered);
+                snapshots.increment();
+            } catch (IOException e) {
+                // Segmenten ligger kvar, så inget går förlorat; nästa försök görs efter snapshotEvery
+                System.out.println("Kunde inte skriva ögonblicksbild: " + e);
+            } finally {
+                snapshotRunning.set(false);
+            }
+        }, "score-snapshot");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void writeSnapshot(ScoreStore scores, int count, long snapshotGeneration) throws IOException {
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 checksum = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), checksum));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(snapshotGeneration);
+            out.writeLong(count);
+            byte[] name = new byte[MAX_NAME_BYTES];
+            for (int i = 0; i < count; i++) {
+                out.writeInt(scores.score(i));
+                out.writeLong(scores.time(i));
+                // Namn från skrivloggen är redan avkortade; bara poäng som lagts in på annat sätt
+                // kan behöva avkortas här
+                int length = scores.names().copyName(scores.nameId(i), name);
+                if (length <= MAX_NAME_BYTES) {
+                    out.writeShort(length);
+                    out.write(name, 0, length);
+                } else {
+                    byte[] truncated = truncatedUtf8(scores.name(i));
+                    out.writeShort(truncated.length);
+                    out.write(truncated);
+                }
+            }
+            out.flush();
+            // Kontrollsumman räknas inte med i sig själv
+            new DataOutputStream(Channels.newOutputStream(channel)).writeInt((int) checksum.getValue());
+            channel.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        for (Path old : segments().headMap(snapshotGeneration).values()) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Alla system kan inte öppna en katalog; där sparar namnbytet sig självt
+        }
+    }
+
+    private int checksum(ByteBuffer data, int from, int to) {
+        crc.reset();
+        crc.update(data.duplicate().limit(to).position(from));
+        return (int) crc.getValue();
+    }
+
+    // UTF-8 för namnet, avkortat vid en teckengräns så att det får plats i en post
+    static byte[] truncatedUtf8(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_NAME_BYTES) {
+            return bytes;
+        }
+        int cut = MAX_NAME_BYTES;
+        while (cut > 0 && (bytes[cut] & 0xC0) == 0x80) {
+            cut--;
+        }
+        byte[] truncated = new byte[cut];
+        System.arraycopy(bytes, 0, truncated, 0, cut);
+        return truncated;
+    }
+
+    int getRecoveredCount() {
+        return recoveredFromSnapshot + recoveredFromLog;
+    }
+
+    long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    String statsLine() {
+        return String.format("poäng %d, fsync %d (p50 %d us, p99 %d us), grupp medel %.1f max %d, ögonblicksbilder %d",
+                records.sum(), fsyncTime.count(), fsyncTime.percentile(50) / 1000, fsyncTime.percentile(99) / 1000,
+                batchSize.mean(), batchSize.max(), snapshots.sum());
+    }
+}
@@ -0,0 +1,143 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Alla poäng som poster med fast bredd utanför heapen: poäng(4) namn-id(4) tid(8), i block om
+// CHUNK_RECORDS poster direkt-minne. Postens nummer är dess plats i insättningsordningen. Namnen
+// ligger i en NameDictionary, och för varje poängvärde finns postnumren med det värdet i
+// insättningsordning (en int-array per värde), så att poäng nummer k med ett visst värde hittas
+// direkt. En poäng kostar alltså 16 byte utanför heapen och 4 byte i en primitiv array, plus
+// namnet en gång per spelare, och skräpsamlaren ser ett objekt per poängvärde i stället för flera
+// per poäng.
+//
+// append() och collect() är synkroniserade. Posterna läses utan lås: size är volatil och skrivs
+// efter posten, så en läsare ser alla poster under size().
+final class ScoreStore {
+    static final int RECORD_BYTES = 16;
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+
+    // Postnummer med samma poängvärde, i insättningsordning
+    private static final class Records {
+        int[] records = new int[4];
+        int count = 0;
+
+        void add(int record) {
+            if (count == records.length) {
+                records = Arrays.copyOf(records, count + (count >> 1) + 1);
+            }
+            records[count++] = record;
+        }
+    }
+
+    private final NameDictionary names = new NameDictionary();
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile int size = 0;
+
+    // Per poängvärde; värden i [0, RankHistogram.MAX_CAPACITY) i en array, andra i en HashMap.
+    // Skyddas av this.
+    private Records[] byScore = new Records[1024];
+    private final HashMap<Integer, Records> outliers = new HashMap<>();
+
+    // Returnerar postens nummer
+    synchronized int append(String name, int score, long time) {
+        int record = size;
+        if (record == Integer.MAX_VALUE) {
+            throw new IllegalStateException("ScoreStore är full");
+        }
+        int chunk = record >>> CHUNK_SHIFT;
+        if (chunk == chunks.length) {
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunk + 1);
+            grown[chunk] = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_BYTES);
+            chunks = grown;
+        }
+        int position = (record & (CHUNK_RECORDS - 1)) * RECORD_BYTES;
+        ByteBuffer buffer = chunks[chunk];
+        buffer.putInt(position, score);
+        buffer.putInt(position + 4, names.intern(name));
+        buffer.putLong(position + 8, time);
+        addToScore(score, record);
+        size = record + 1;
+        return record;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int score(int record) {
+        return buffer(record).getInt(offset(record));
+    }
+
+    int nameId(int record) {
+        return buffer(record).getInt(offset(record) + 4);
+    }
+
+    long time(int record) {
+        return buffer(record).getLong(offset(record) + 8);
+    }
+
+    String name(int record) {
+        return names.name(nameId(record));
+    }
+
+    NameDictionary names() {
+        return names;
+    }
+
+    ScoreIndex.StoredScore get(int record) {
+        return new ScoreIndex.StoredScore(name(record), score(record), time(record), record);
+    }
+
+    // Lägger till poängen med värdet score från och med nummer first (0 = den äldsta) i out, högst
+    // max stycken. Returnerar hur många som lades till.
+    synchronized int collect(int score, int first, int max, List<ScoreIndex.StoredScore> out) {
+        Records records = score >= 0 && score < byScore.length ? byScore[score] : outliers.get(score);
+        int added = 0;
+        for (int i = first; records != null && i < records.count && added < max; i++, added++) {
+            out.add(get(records.records[i]));
+        }
+        return added;
+    }
+
+    // Direkt-minne respektive ungefärlig heap (bara arrayerna, inte deras huvuden)
+    long offHeapBytes() {
+        return (long) chunks.length * CHUNK_RECORDS * RECORD_BYTES + names.offHeapBytes();
+    }
+
+    synchronized long heapBytes() {
+        long bytes = 4L * byScore.length + names.heapBytes();
+        for (Records records : byScore) {
+            bytes += records != null ? 4L * records.records.length : 0;
+        }
+        for (Records records : outliers.values()) {
+            bytes += 4L * records.records.length;
+        }
+        return bytes;
+    }
+
+    private ByteBuffer buffer(int record) {
+        return chunks[record >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int record) {
+        return (record & (CHUNK_RECORDS - 1)) * RECORD_BYTES;
+    }
+
+    private void addToScore(int score, int record) {
+        if (score < 0 || score >= RankHistogram.MAX_CAPACITY) {
+            outliers.computeIfAbsent(score, k -> new Records()).add(record);
+            return;
+        }
+        if (score >= byScore.length) {
+            byScore = Arrays.copyOf(byScore, Math.min(RankHistogram.MAX_CAPACITY, Integer.highestOneBit(score) * 2));
+        }
+        if (byScore[score] == null) {
+            byScore[score] = new Records();
+        }
+        byScore[score].add(record);
+    }
+}
@@ -0,0 +1,153 @@
+package game;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+// Minne och GC-pauser för ScoreIndex med många poäng: fyller indexet med --entries poäng från
+// --players olika spelare, och blandar sedan i --seconds sekunder nya poäng med frågor om plats och
+// topplista. Skriver ut byte per poäng i heapen (efter en full GC) och utanför (direkt-minne), och
+// de längsta GC-pauserna under fyllningen och under blandningen.
+//
+// Starta med: java -XX:MaxDirectMemorySize=<minst 20 byte per poäng> -cp <klasser>
+//             game.ScoreStoreBench [--entries n] [--players n] [--seconds s]
+public class ScoreStoreBench {
+    private static final AtomicLong pauses = new AtomicLong();
+    private static final AtomicLong pauseNanos = new AtomicLong();
+    private static final AtomicLong maxPauseNanos = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int entries = 10_000_000;
+        int players = 100_000;
+        int seconds = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--entries":
+                    entries = Integer.parseInt(args[++i]);
+                    break;
+                case "--players":
+                    players = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("okänt argument " + args[i]);
+            }
+        }
+        listenForPauses();
+        String[] names = new String[players];
+        for (int i = 0; i < players; i++) {
+            names[i] = "spelare" + i;
+        }
+        long heapBefore = usedHeapAfterGc();
+        long directBefore = directMemory();
+
+        ScoreIndex index = new ScoreIndex();
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        resetPauses();
+        long start = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            index.add(names[random.nextInt(players)], score(random), now - (entries - i));
+        }
+        double fillSeconds = (System.nanoTime() - start) / 1e9;
+        printPauses(String.format("fyllning %d poäng på %.1f s (%.0f ns per poäng)",
+                entries, fillSeconds, fillSeconds * 1e9 / entries));
+
+        long heap = usedHeapAfterGc() - heapBefore;
+        long direct = directMemory() - directBefore;
+        System.out.printf("heap %.0f MB (%.1f byte per poäng), direkt-minne %.0f MB (%.1f byte per poäng), "
+                        + "totalt %.1f byte per poäng%n", heap / 1e6, (double) heap / entries, direct / 1e6,
+                (double) direct / entries, (double) (heap + direct) / entries);
+        ScoreStore store = index.store();
+        System.out.printf("enligt ScoreStore: %.0f MB heap, %.0f MB direkt, %d namn%n",
+                store.heapBytes() / 1e6, store.offHeapBytes() / 1e6, store.names().size());
+
+        // Blandad last: var tionde operation är en ny poäng, resten platsfrågor
+        resetPauses();
+        LatencyHistogram rankTime = new LatencyHistogram();
+        LatencyHistogram aroundTime = new LatencyHistogram();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long operations = 0;
+        long sink = 0;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++, operations++) {
+                int kind = i % 10;
+                if (kind == 0) {
+                    index.add(names[random.nextInt(players)], score(random), System.currentTimeMillis());
+                } else if (kind < 8) {
+                    long t = System.nanoTime();
+                    sink += index.rankOf(score(random));
+                    rankTime.record(System.nanoTime() - t);
+                } else {
+                    long t = System.nanoTime();
+                    sink += index.around(1 + random.nextInt(index.size()), ScoreIndex.TOP_COUNT).size();
+                    aroundTime.record(System.nanoTime() - t);
+                }
+            }
+        }
+        printPauses(String.format("blandning %.0f operationer/s", operations / (double) seconds));
+        System.out.printf("rankOf p50 %.2f us p99 %.2f us, around(10) p50 %.2f us p99 %.2f us (%d)%n",
+                rankTime.percentile(50) / 1e3, rankTime.percentile(99) / 1e3,
+                aroundTime.percentile(50) / 1e3, aroundTime.percentile(99) / 1e3, sink % 10);
+    }
+
+    // Ungefär som höjderna i spelet: de flesta låga, några långt upp
+    private static int score(Random random) {
+        return (int) Math.abs(random.nextGaussian() * 5000);
+    }
+
+    private static void listenForPauses() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                // Samtidiga cykler (t.ex. G1:s concurrent mark) stoppar inte programmet
+                if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Concurrent")) {
+                    return;
+                }
+                long nanos = info.getGcInfo().getDuration() * 1_000_000L;
+                pauses.incrementAndGet();
+                pauseNanos.addAndGet(nanos);
+                maxPauseNanos.accumulateAndGet(nanos, Math::max);
+            }, null, null);
+        }
+    }
+
+    private static void resetPauses() {
+        pauses.set(0);
+        pauseNanos.set(0);
+        maxPauseNanos.set(0);
+    }
+
+    private static void printPauses(String label) {
+        System.out.printf("%s: %d GC-pauser, totalt %d ms, längsta %d ms%n", label, pauses.get(),
+                pauseNanos.get() / 1_000_000, maxPauseNanos.get() / 1_000_000);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long directMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,321 @@
+package game;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+// Lasttest för GameSessionServer: många huvudlösa klienter på en enda tråd med en Selector.
+// Varje spelare startar en session, byter riktning några gånger i sekunden och startar om efter
+// game over; åskådarna tittar på slumpvalda sessioner. Alla ramar tillämpas på en RemoteGame,
+// så fel i protokollet syns som avkodningsfel.
+//
+// Starta med: java -cp <klasser> game.SessionLoadTest [--players n] [--spectators n per spelare]
+//             [--seconds s] [--host h] [--port p] [--in-process] [--shards n] [--tick-rate hz]
+//             [--send-rate hz]
+// Med --in-process startas servern i samma process och dess processortid räknas för sig, så att
+// resultatet kan räknas om till sessioner per kärna. Efteråt jämförs varje klients kopia med
+// serverns session, så att ramar som avkodats utan fel men byggt upp fel läge också syns.
+public class SessionLoadTest {
+    private static final int INPUT_INTERVAL_MILLIS = 250;
+
+    private static final class Client {
+        final SocketChannel channel;
+        final boolean player;
+        final RemoteGame game = new RemoteGame();
+        final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        final ByteBuffer out = ByteBuffer.allocate(16);
+        long nextInput;
+        long frames, bytes;
+
+        Client(SocketChannel channel, boolean player) {
+            this.channel = channel;
+            this.player = player;
+        }
+    }
+
+    private final Selector selector;
+    private final ArrayList<Client> players = new ArrayList<>();
+    private final ArrayList<Client> spectators = new ArrayList<>();
+    private final Random random = new Random(1);
+    private long decodeErrors, sendFailures, closed;
+    // Falskt när spelarna ska sluta styra och starta om
+    private boolean steering = true;
+
+    private SessionLoadTest() throws IOException {
+        selector = Selector.open();
+    }
+
+    private Client connect(InetSocketAddress address, boolean player) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.configureBlocking(false);
+        Client client = new Client(channel, player);
+        channel.register(selector, SelectionKey.OP_READ, client);
+        return client;
+    }
+
+    private void send(Client client, byte type, int value) {
+        ByteBuffer out = client.out;
+        out.clear();
+        // Längden skrivs sist; klientens ramar är alla kortare än 128 byte, så den tar en byte
+        out.position(1);
+        out.put(type);
+        if (type == SessionProtocol.SPECTATE) {
+            SessionProtocol.putVarint(out, value);
+        } else if (type == SessionProtocol.INPUT) {
+            out.put((byte) value);
+        }
+        out.put(0, (byte) (out.position() - 1));
+        out.flip();
+        try {
+            client.channel.write(out);
+            if (out.hasRemaining()) {
+                sendFailures++;
+            }
+        } catch (IOException e) {
+            sendFailures++;
+        }
+    }
+
+    private void read(Client client) {
+        try {
+            int read = client.channel.read(client.in);
+            if (read < 0) {
+                closed++;
+                client.channel.close();
+                return;
+            }
+            client.bytes += read;
+            client.in.flip();
+            int length;
+            while ((length = SessionProtocol.nextFrame(client.in)) > 0) {
+                int end = client.in.position() + length;
+                ByteBuffer frame = client.in.slice();
+                frame.limit(length);
+                client.game.apply(frame);
+                client.frames++;
+                client.in.position(end);
+            }
+            client.in.compact();
+        } catch (IOException | RuntimeException e) {
+            decodeErrors++;
+            try {
+                client.channel.close();
+            } catch (IOException ignored) {
+                // Redan stängd
+            }
+        }
+    }
+
+    private void pump(long untilNanos) throws IOException {
+        while (System.nanoTime() < untilNanos) {
+            selector.select(5);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid() && key.isReadable()) {
+                    read((Client) key.attachment());
+                }
+            }
+            long now = System.nanoTime();
+            for (Client client : players) {
+                if (!steering || now < client.nextInput || !client.game.isSynced() || !client.channel.isOpen()) {
+                    continue;
+                }
+                client.nextInput = now + (INPUT_INTERVAL_MILLIS / 2 + random.nextInt(INPUT_INTERVAL_MILLIS)) * 1_000_000L;
+                if (client.game.isGameOver()) {
+                    send(client, SessionProtocol.RESTART, 0);
+                } else {
+                    send(client, SessionProtocol.INPUT, random.nextInt(3));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = GameSessionServer.DEFAULT_PORT;
+        int playerCount = 1000;
+        int spectatorsPerPlayer = 0;
+        int seconds = 20;
+        boolean inProcess = false;
+        int shards = 1;
+        int tickRate = FixedStepClock.DEFAULT_TICK_RATE;
+        int sendRate = GameSessionServer.DEFAULT_SEND_RATE;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--players":
+                    playerCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--spectators":
+                    spectatorsPerPlayer = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--host":
+                    host = args[++i];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--in-process":
+                    inProcess = true;
+                    break;
+                case "--shards":
+                    shards = Integer.parseInt(args[++i]);
+                    break;
+                case "--tick-rate":
+                    tickRate = Integer.parseInt(args[++i]);
+                    break;
+                case "--send-rate":
+                    sendRate = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("okänt argument " + args[i]);
+            }
+        }
+
+        GameSessionServer server = null;
+        if (inProcess) {
+            server = new GameSessionServer(0, shards, tickRate, sendRate, Simulation.DEFAULT_PLATFORM_COUNT);
+            server.start();
+            port = server.getPort();
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        SessionLoadTest test = new SessionLoadTest();
+
+        for (int i = 0; i < playerCount; i++) {
+            Client client = test.connect(address, true);
+            test.send(client, SessionProtocol.PLAY, 0);
+            test.players.add(client);
+            if (i % 100 == 99) {
+                test.pump(System.nanoTime());
+            }
+        }
+        // Åskådarna behöver sessions-id från WELCOME
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (System.nanoTime() < deadline && test.players.stream().anyMatch(c -> !c.game.isSynced())) {
+            test.pump(System.nanoTime() + 10_000_000L);
+        }
+        for (int i = 0; i < playerCount * spectatorsPerPlayer; i++) {
+            Client watched = test.players.get(test.random.nextInt(playerCount));
+            Client client = test.connect(address, false);
+            test.send(client, SessionProtocol.SPECTATE, watched.game.getSessionId());
+            test.spectators.add(client);
+            if (i % 100 == 99) {
+                test.pump(System.nanoTime());
+            }
+        }
+        System.out.println("Anslutna: " + playerCount + " spelare, " + test.spectators.size() + " åskådare");
+
+        // Uppvärmning, sedan mätning
+        test.pump(System.nanoTime() + 2_000_000_000L);
+        long framesBefore = test.totalFrames();
+        long bytesBefore = test.totalBytes();
+        long serverCpuBefore = server != null ? server.cpuNanos() : 0;
+        long clientCpuBefore = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        test.pump(start + seconds * 1_000_000_000L);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long frames = test.totalFrames() - framesBefore;
+        long bytes = test.totalBytes() - bytesBefore;
+        double clientCpu = (ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - clientCpuBefore) / 1e9;
+
+        int clients = test.players.size() + test.spectators.size();
+        System.out.printf("%.1f s: %.0f ramar/s, %.2f MB/s, %.1f byte per ram, %.0f byte/s per klient%n",
+                elapsed, frames / elapsed, bytes / elapsed / 1e6, (double) bytes / Math.max(1, frames),
+                bytes / elapsed / clients);
+        long fulls = 0;
+        for (Client client : test.players) {
+            fulls += client.game.getFullFrames();
+        }
+        for (Client client : test.spectators) {
+            fulls += client.game.getFullFrames();
+        }
+        System.out.printf("FULL-ramar totalt %d, avkodningsfel %d, misslyckade sändningar %d, stängda %d%n",
+                fulls, test.decodeErrors, test.sendFailures, test.closed);
+        System.out.printf("klienttrådens processortid %.2f s (%.0f%% av en kärna)%n", clientCpu, 100 * clientCpu / elapsed);
+        if (server != null) {
+            double serverCpu = (server.cpuNanos() - serverCpuBefore) / 1e9;
+            double cores = serverCpu / elapsed;
+            System.out.printf("serverns processortid %.2f s (%.0f%% av en kärna), alltså ungefär %.0f sessioner per kärna%n",
+                    serverCpu, 100 * cores, playerCount / Math.max(cores, 1e-9));
+            System.out.println(server.statsLine());
+            int mismatches = test.compareWithServer(server);
+            server.stop();
+            System.exit(test.decodeErrors == 0 && mismatches == 0 ? 0 : 1);
+        }
+        System.exit(test.decodeErrors == 0 ? 0 : 1);
+    }
+
+    // Spelarna slutar styra tills sessionerna är game over och alltså står still, och sedan
+    // jämförs varje kopia med serverns läge. Returnerar antalet kopior som skiljer sig.
+    private int compareWithServer(GameSessionServer server) throws IOException {
+        steering = false;
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (System.nanoTime() < deadline
+                && players.stream().anyMatch(c -> c.channel.isOpen() && !c.game.isGameOver())) {
+            pump(System.nanoTime() + 10_000_000L);
+        }
+        // Åskådarna kan ligga en ram efter
+        pump(System.nanoTime() + 200_000_000L);
+
+        GameSnapshot snapshot = new GameSnapshot(16);
+        int compared = 0, mismatches = 0, running = 0;
+        ArrayList<Client> clients = new ArrayList<>(players);
+        clients.addAll(spectators);
+        for (Client client : clients) {
+            GameSessionServer.Session session = server.session(client.game.getSessionId());
+            if (session == null || !client.channel.isOpen()) {
+                continue;
+            }
+            boolean gameOver;
+            // Ticktråden skickar under ägarens monitor efter varje steg, så här syns dess sista läge
+            synchronized (session.owner) {
+                gameOver = session.simulation.isGameOver();
+                session.simulation.copyTo(snapshot);
+            }
+            if (!gameOver) {
+                running++;
+                continue;
+            }
+            compared++;
+            if (!client.game.matches(snapshot)) {
+                mismatches++;
+            }
+        }
+        System.out.printf("kopior jämförda med servern %d, avvikande %d, ej jämförda (spelar fortfarande) %d%n",
+                compared, mismatches, running);
+        return mismatches;
+    }
+
+    private long totalFrames() {
+        long total = 0;
+        for (Client client : players) {
+            total += client.frames;
+        }
+        for (Client client : spectators) {
+            total += client.frames;
+        }
+        return total;
+    }
+
+    private long totalBytes() {
+        long total = 0;
+        for (Client client : players) {
+            total += client.bytes;
+        }
+        for (Client client : spectators) {
+            total += client.bytes;
+        }
+        return total;
+    }
+}
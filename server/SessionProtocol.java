@@ -0,0 +1,230 @@
+package game;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// Binärt protokoll mellan GameSessionServer och dess klienter över en vanlig TCP-ström.
+// Varje meddelande är en ram: varint längd, sedan en typbyte och typens innehåll.
+// Heltal skrivs som varint, och de som kan vara negativa som zigzag-varint.
+//
+// Klient -> server
+//   PLAY                          starta en ny session och spela den
+//   SPECTATE   varint sessionId   titta på en annans session
+//   INPUT      byte inputbitar    Simulation.INPUT_LEFT / INPUT_RIGHT, gäller tills nästa INPUT
+//   RESTART                       ny runda i den egna sessionen efter game over
+//
+// Server -> klient
+//   WELCOME    varint sessionId, byte roll (ROLE_PLAYER eller ROLE_SPECTATOR)
+//   FULL       varint tick, zigzag spelarX, zigzag spelarY, varint poäng, byte game over,
+//              varint antal plattformar, per plattform zigzag x, zigzag y, byte träffad
+//   DELTA      byte fält, varint steg, och sedan bara de fält som finns med:
+//              F_PLAYER_X zigzag dx, F_PLAYER_Y zigzag dy, F_SCORE varint ökning,
+//              F_PLATFORMS varint borttagna nedifrån, varint tillagda överst med x, y och träffad
+//              som i FULL, varint nya träffar med varint index (räknat efter borttagning)
+//              F_GAME_OVER har inget innehåll
+//   ERROR      byte felkod
+//
+// Plattformarna ligger still i världen och hela världen rullar en pixel per steg, så en klient
+// flyttar själv alla plattformar "steg" pixlar nedåt. En DELTA för ett vanligt steg är därför
+// bara ett par byte. FULL skickas när någon börjar titta, efter RESTART och när en klient
+// har hamnat så långt efter att dess buffert inte får plats med fler DELTA.
+final class SessionProtocol {
+    static final byte PLAY = 1;
+    static final byte SPECTATE = 2;
+    static final byte INPUT = 3;
+    static final byte RESTART = 4;
+
+    static final byte WELCOME = 10;
+    static final byte FULL = 11;
+    static final byte DELTA = 12;
+    static final byte ERROR = 13;
+
+    static final byte ROLE_PLAYER = 0;
+    static final byte ROLE_SPECTATOR = 1;
+
+    static final int F_PLAYER_X = 1;
+    static final int F_PLAYER_Y = 2;
+    static final int F_SCORE = 4;
+    static final int F_PLATFORMS = 8;
+    static final int F_GAME_OVER = 16;
+
+    static final byte ERR_NO_SUCH_SESSION = 1;
+    static final byte ERR_BAD_MESSAGE = 2;
+    static final byte ERR_NOT_PLAYER = 3;
+    static final byte ERR_SESSION_CLOSED = 4;
+
+    // Största ram som tas emot eller skickas; en FULL med alla plattformar på skärmen ryms gott
+    static final int MAX_FRAME = 16 * 1024;
+
+    private SessionProtocol() {
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static void putZigzag(ByteBuffer out, int value) {
+        putVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint för lång");
+    }
+
+    static int getZigzag(ByteBuffer in) {
+        int value = getVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Läser längden på nästa ram om hela ramen redan finns i in, annars -1 och in lämnas orörd.
+    // Positionen står sedan på ramens första byte.
+    static int nextFrame(ByteBuffer in) {
+        int start = in.position();
+        try {
+            int length = getVarint(in);
+            if (length < 1 || length > MAX_FRAME) {
+                throw new IllegalArgumentException("ogiltig ramlängd " + length);
+            }
+            if (in.remaining() < length) {
+                in.position(start);
+                return -1;
+            }
+            return length;
+        } catch (BufferUnderflowException e) {
+            in.position(start);
+            return -1;
+        }
+    }
+
+    // Skriver en ram vars innehåll ligger mellan from och to i body
+    static void putFrame(ByteBuffer out, ByteBuffer body, int from, int to) {
+        putVarint(out, to - from);
+        for (int i = from; i < to; i++) {
+            out.put(body.get(i));
+        }
+    }
+
+    static int frameSize(int bodyLength) {
+        return varintSize(bodyLength) + bodyLength;
+    }
+
+    // Fyller body (från position 0) med en FULL för snapshot och returnerar längden
+    static int encodeFull(ByteBuffer body, GameSnapshot snapshot) {
+        body.clear();
+        body.put(FULL);
+        putVarint(body, (int) snapshot.getTick());
+        putZigzag(body, snapshot.getPlayerX());
+        putZigzag(body, snapshot.getPlayerY());
+        putVarint(body, snapshot.getScore());
+        body.put((byte) (snapshot.isGameOver() ? 1 : 0));
+        putVarint(body, snapshot.getPlatformCount());
+        for (int i = 0; i < snapshot.getPlatformCount(); i++) {
+            putZigzag(body, snapshot.getPlatformX(i));
+            putZigzag(body, snapshot.getPlatformY(i));
+            body.put((byte) (snapshot.isPlatformHit(i) ? 1 : 0));
+        }
+        return body.position();
+    }
+
+    // Fyller body med en DELTA från before till after och returnerar längden, eller -1 om de inte
+    // hänger ihop (ny runda) och en FULL behövs
+    static int encodeDelta(ByteBuffer body, GameSnapshot before, GameSnapshot after) {
+        long steps = after.getTick() - before.getTick();
+        if (steps < 0 || steps > Integer.MAX_VALUE) {
+            return -1;
+        }
+        // Plattformarnas id ökar nedifrån och upp: de som försvunnit ligger först i before och
+        // de nya sist i after, resten ska finnas i båda i samma ordning
+        int oldCount = before.getPlatformCount();
+        int newCount = after.getPlatformCount();
+        int removed = 0;
+        if (newCount > 0) {
+            while (removed < oldCount && before.getPlatformId(removed) < after.getPlatformId(0)) {
+                removed++;
+            }
+        } else {
+            removed = oldCount;
+        }
+        int kept = oldCount - removed;
+        if (kept > newCount) {
+            return -1;
+        }
+        int hits = 0;
+        for (int i = 0; i < kept; i++) {
+            if (before.getPlatformId(removed + i) != after.getPlatformId(i)
+                    || before.getPlatformY(removed + i) + steps != after.getPlatformY(i)) {
+                return -1;
+            }
+            if (after.isPlatformHit(i) && !before.isPlatformHit(removed + i)) {
+                hits++;
+            } else if (!after.isPlatformHit(i) && before.isPlatformHit(removed + i)) {
+                return -1;
+            }
+        }
+        int added = newCount - kept;
+
+        int fields = 0;
+        int dx = after.getPlayerX() - before.getPlayerX();
+        int dy = after.getPlayerY() - before.getPlayerY();
+        int scoreGain = after.getScore() - before.getScore();
+        if (scoreGain < 0) {
+            return -1;
+        }
+        fields |= dx != 0 ? F_PLAYER_X : 0;
+        fields |= dy != 0 ? F_PLAYER_Y : 0;
+        fields |= scoreGain != 0 ? F_SCORE : 0;
+        fields |= removed + added + hits != 0 ? F_PLATFORMS : 0;
+        fields |= after.isGameOver() ? F_GAME_OVER : 0;
+
+        body.clear();
+        body.put(DELTA);
+        body.put((byte) fields);
+        putVarint(body, (int) steps);
+        if (dx != 0) {
+            putZigzag(body, dx);
+        }
+        if (dy != 0) {
+            putZigzag(body, dy);
+        }
+        if (scoreGain != 0) {
+            putVarint(body, scoreGain);
+        }
+        if ((fields & F_PLATFORMS) != 0) {
+            putVarint(body, removed);
+            putVarint(body, added);
+            for (int i = kept; i < newCount; i++) {
+                putZigzag(body, after.getPlatformX(i));
+                putZigzag(body, after.getPlatformY(i));
+                body.put((byte) (after.isPlatformHit(i) ? 1 : 0));
+            }
+            putVarint(body, hits);
+            for (int i = 0; i < kept; i++) {
+                if (after.isPlatformHit(i) && !before.isPlatformHit(removed + i)) {
+                    putVarint(body, i);
+                }
+            }
+        }
+        return body.position();
+    }
+}
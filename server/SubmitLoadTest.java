@@ -0,0 +1,129 @@
+package game;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lasttest för POST /api/leaderboard: ett antal samtidiga klienter som var och en skickar nästa
+// poäng så fort förra har fått svar, och mäter svarstiden med en LatencyHistogram.
+//
+// Starta med: java -cp <klasser> game.SubmitLoadTest [--clients n] [--seconds s] [--url adress]
+//             [--in-process] [--in-memory] [--data katalog]
+// Med --in-process startas servern i samma process med skrivlogg i en tillfällig katalog (eller
+// --data), och efteråt startas den om från katalogen för att kontrollera att alla poäng som fått
+// svar 201 finns kvar. --in-memory kör utan skrivlogg, för jämförelse.
+public class SubmitLoadTest {
+    public static void main(String[] args) throws Exception {
+        int clients = 64;
+        int seconds = 10;
+        String url = "http://localhost:" + LeaderboardServer.DEFAULT_PORT + "/api/leaderboard";
+        boolean inProcess = false;
+        boolean durable = true;
+        Path dataDirectory = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--clients":
+                    clients = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--url":
+                    url = args[++i];
+                    break;
+                case "--in-process":
+                    inProcess = true;
+                    break;
+                case "--in-memory":
+                    durable = false;
+                    break;
+                case "--data":
+                    dataDirectory = Path.of(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("okänt argument " + args[i]);
+            }
+        }
+
+        LeaderboardServer server = null;
+        if (inProcess) {
+            if (durable && dataDirectory == null) {
+                dataDirectory = Files.createTempDirectory("leaderboard-load");
+            }
+            server = new LeaderboardServer(0, false, durable ? dataDirectory : null);
+            server.start();
+            url = "http://localhost:" + server.getPort() + "/api/leaderboard";
+        }
+
+        HttpClient client = HttpClient.newHttpClient();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong created = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        CountDownLatch finished = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            submitNext(client, URI.create(url), i, 0, end, latency, created, failed, finished);
+        }
+        finished.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d klienter, %.1f s: %d sparade, %d misslyckade, %.0f poäng/s%n",
+                clients, elapsed, created.get(), failed.get(), created.get() / elapsed);
+        System.out.printf("svarstid p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                latency.percentile(50) / 1e6, latency.percentile(99) / 1e6, latency.percentile(99.9) / 1e6,
+                latency.max() / 1e6);
+
+        if (server != null) {
+            ScoreLog log = server.getScoreLog();
+            if (log != null) {
+                System.out.println(log.statsLine());
+            }
+            long stored = server.getIndex().size();
+            server.stop();
+            if (log != null) {
+                // Starta om från samma katalog och kontrollera att inget som fått 201 försvann
+                LeaderboardServer restarted = new LeaderboardServer(0, false, dataDirectory);
+                long recovered = restarted.getIndex().size();
+                System.out.printf("omstart: %d av %d poäng återställda på %.1f ms%n", recovered, stored,
+                        restarted.getScoreLog().getRecoveryNanos() / 1e6);
+                restarted.stop();
+                if (recovered < created.get()) {
+                    System.exit(1);
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void submitNext(HttpClient client, URI uri, int clientId, int sequence, long end,
+            LatencyHistogram latency, AtomicLong created, AtomicLong failed, CountDownLatch finished) {
+        if (System.nanoTime() >= end) {
+            finished.countDown();
+            return;
+        }
+        String body = ScoreJson.appendEntry(new StringBuilder(), "playerName", "klient" + clientId,
+                sequence * 7919 % 100_000).toString();
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+        long sent = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            latency.record(System.nanoTime() - sent);
+            if (error == null && response.statusCode() / 100 == 2) {
+                created.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            submitNext(client, uri, clientId, sequence + 1, end, latency, created, failed, finished);
+        });
+    }
+}
@@ -0,0 +1,139 @@
+package game;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Kontrollerar ScoreSubmitter mot en stubbserver med inlagd fördröjning: submit() ska komma
+// tillbaka direkt fast servern tar --latency ms på sig, svar 503 ska försökas igen, alla anrop ska
+// rapportera sitt resultat, anslutningarna ska återanvändas och en full kö ska ge false.
+//
+// Starta med: java -cp <klasser> game.SubmitStubTest [--latency ms] [--submits n] [--failures n]
+// Avslutas med status 1 om någon kontroll misslyckas.
+public class SubmitStubTest {
+    private static final int WORKERS = 2;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private int latencyMillis = 300;
+    private int failed = 0;
+
+    public static void main(String[] args) throws Exception {
+        SubmitStubTest test = new SubmitStubTest();
+        int submits = 10;
+        int failures = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--latency":
+                    test.latencyMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--submits":
+                    submits = Integer.parseInt(args[++i]);
+                    break;
+                case "--failures":
+                    failures = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("okänt argument " + args[i]);
+            }
+        }
+        System.exit(test.run(submits, failures) ? 0 : 1);
+    }
+
+    private boolean run(int submits, int failures) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/leaderboard", this::handle);
+        // Flera trådar så att fördröjningen inte köar upp förfrågningarna i servern
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/api/leaderboard";
+
+        // Kön rymmer alla anrop, så bara arbetstrådarna begränsar hur många som skickas samtidigt
+        ScoreSubmitter submitter = new ScoreSubmitter(WORKERS, submits, 3, 50);
+        // Första anropet laddar klasser och startar en arbetstråd; det mäts inte och svaret väntas
+        // in, så att det inte heller räknas bland förfrågningarna nedan
+        CountDownLatch warmedUp = new CountDownLatch(1);
+        submitter.submit(ScoreSubmitter.newRequest(url).POST(HttpRequest.BodyPublishers.ofString("{}")).build(),
+                (success, statusCode) -> warmedUp.countDown());
+        warmedUp.await(30, TimeUnit.SECONDS);
+        requests.set(0);
+        failuresLeft.set(failures);
+        clientPorts.clear();
+        CountDownLatch done = new CountDownLatch(submits);
+        AtomicInteger succeeded = new AtomicInteger();
+        long slowestSubmitNanos = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < submits; i++) {
+            HttpRequest request = ScoreSubmitter.newRequest(url)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"playerName\":\"stubb\",\"score\":" + i + "}"))
+                    .build();
+            long before = System.nanoTime();
+            boolean queued = submitter.submit(request, (success, statusCode) -> {
+                if (success) {
+                    succeeded.incrementAndGet();
+                }
+                done.countDown();
+            });
+            slowestSubmitNanos = Math.max(slowestSubmitNanos, System.nanoTime() - before);
+            if (!queued) {
+                done.countDown();
+            }
+        }
+        boolean finished = done.await(30, TimeUnit.SECONDS);
+        double elapsedMillis = (System.nanoTime() - start) / 1e6;
+
+        check(slowestSubmitNanos < TimeUnit.MILLISECONDS.toNanos(10),
+                String.format("submit() kommer tillbaka direkt (långsammast %.2f ms, servern %d ms)",
+                        slowestSubmitNanos / 1e6, latencyMillis));
+        check(finished && succeeded.get() == submits,
+                succeeded.get() + " av " + submits + " lyckades på " + Math.round(elapsedMillis) + " ms");
+        check(requests.get() == submits + failures,
+                requests.get() + " förfrågningar, " + failures + " svar 503 försöktes igen");
+        check(clientPorts.size() <= WORKERS, clientPorts.size() + " anslutningar för " + WORKERS + " arbetstrådar");
+        submitter.shutdown();
+
+        // En arbetstråd som är upptagen och en plats i kön: det tredje anropet får inte plats
+        ScoreSubmitter small = new ScoreSubmitter(1, 1, 1, 0);
+        HttpRequest request = ScoreSubmitter.newRequest(url).POST(HttpRequest.BodyPublishers.ofString("{}")).build();
+        boolean first = small.submit(request, (success, statusCode) -> { });
+        boolean second = small.submit(request, (success, statusCode) -> { });
+        boolean third = small.submit(request, (success, statusCode) -> { });
+        check(first && second && !third, "full kö ger false i stället för att vänta");
+        small.shutdown();
+
+        server.stop(0);
+        System.out.println(failed == 0 ? "alla kontroller gick igenom" : failed + " kontroller misslyckades");
+        return failed == 0;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.getRequestBody().readAllBytes();
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int status = failuresLeft.getAndDecrement() > 0 ? 503 : 201;
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private void check(boolean passed, String what) {
+        System.out.println((passed ? "ok   " : "FEL  ") + what);
+        if (!passed) {
+            failed++;
+        }
+    }
+}